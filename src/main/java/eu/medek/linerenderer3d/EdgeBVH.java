@@ -0,0 +1,508 @@
+package eu.medek.linerenderer3d;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounding volume hierarchy of axis-aligned boxes over the cached world space edges of a {@link World}. Used for
+ * culling edges outside of the view, approximate back-to-front ordering without sorting and picking.
+ * <br>
+ * The hierarchy is a binary tree built top-down by splitting the edges at the median of their midpoints along the
+ * longest axis, until at most {@link #LEAF_SIZE} edges are left. Edges are reordered so that every node covers a
+ * continuous range of {@link #edges}. Children are always stored after their parent. When only positions of vertices
+ * change, the boxes are refitted bottom-up and only nodes containing changed edges are updated, the tree itself is
+ * rebuilt only after the edges change.
+ * <br>
+ * Every node is stored as a part of flat arrays, so there are no per-node objects on the heap.
+ */
+class EdgeBVH {
+    /**
+     * Maximum number of edges in a leaf.
+     */
+    static final int LEAF_SIZE = 16;
+
+    /**
+     * Nodes with at least this number of edges build their children in parallel (if parallel build is enabled).
+     */
+    private static final int PARALLEL_BUILD_THRESHOLD = 16384;
+
+    /**
+     * Task building a subtree on the {@link ForkJoinPool}.
+     */
+    private class BuildTask extends RecursiveAction {
+        /**
+         * Tasks are never serialized, the version only satisfies {@link java.io.Serializable}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Node to build.
+         */
+        private final int node;
+
+        /**
+         * Range [first, last) of {@link #edges} covered by the node.
+         */
+        private final int first, last;
+
+        /**
+         * @param node node to build
+         * @param first index of the first edge covered by the node
+         * @param last index after the last edge covered by the node
+         */
+        BuildTask(int node, int first, int last) {
+            this.node = node;
+            this.first = first;
+            this.last = last;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void compute() {
+            buildNode(node, first, last, true);
+        }
+    }
+
+    /**
+     * Indices of the edges (in the numbering of the {@link World}) in the order of the leaves.
+     */
+    private int[] edges = new int[0];
+
+    /**
+     * Indices of the vertices of the edges in {@link #edges}, in the same order.
+     */
+    private int[] from = new int[0], to = new int[0];
+
+    /**
+     * Leaf containing each edge, indexed by the index of the edge in the {@link World}.
+     */
+    private int[] edgeLeaf = new int[0];
+
+    /**
+     * Bounding box of each node, 6 values per node [minX, minY, minZ, maxX, maxY, maxZ].
+     */
+    private float[] bounds = new float[0];
+
+    /**
+     * Children of each node, -1 for leaves. The right child is always stored right after the left one.
+     */
+    private int[] left = new int[0];
+
+    /**
+     * Parent of each node, -1 for the root.
+     */
+    private int[] parent = new int[0];
+
+    /**
+     * Range [start, end) of {@link #edges} covered by each node.
+     */
+    private int[] start = new int[0], end = new int[0];
+
+    /**
+     * True for nodes whose bounding box has to be recalculated by {@link #refit}.
+     */
+    private boolean[] dirty = new boolean[0];
+
+    /**
+     * True if any node is {@link #dirty}.
+     */
+    private boolean anyDirty = false;
+
+    /**
+     * Number of nodes, the root is node 0 (if there are any edges).
+     */
+    private int nodeCount = 0;
+
+    /**
+     * Number of edges in the hierarchy.
+     */
+    private int edgeCount = 0;
+
+    /**
+     * True if the hierarchy was built and wasn't invalidated since then.
+     */
+    private boolean built = false;
+
+    /**
+     * Midpoints of the edges during the build, 3 values per edge, indexed by the index of the edge in the
+     * {@link World}.
+     */
+    private float[] midpoints;
+
+    /**
+     * Next free node during the build.
+     */
+    private AtomicInteger nextNode;
+
+    /**
+     * Build the hierarchy over the edges.
+     * @param count number of edges
+     * @param edgeFrom index of the first vertex of each edge
+     * @param edgeTo index of the second vertex of each edge
+     * @param x x coordinates of the vertices
+     * @param y y coordinates of the vertices
+     * @param z z coordinates of the vertices
+     * @param parallel true to build the upper levels of the tree in parallel on the common {@link ForkJoinPool}
+     */
+    void build(int count, int[] edgeFrom, int[] edgeTo, float[] x, float[] y, float[] z, boolean parallel) {
+        edgeCount = count;
+        // every leaf except for a lone root has at least LEAF_SIZE / 2 edges
+        int maxNodes = 2 * (count / (LEAF_SIZE / 2) + 1);
+        if (edges.length < count) {
+            edges = new int[count];
+            from = new int[count];
+            to = new int[count];
+            edgeLeaf = new int[count];
+        }
+        if (left.length < maxNodes) {
+            bounds = new float[6 * maxNodes];
+            left = new int[maxNodes];
+            parent = new int[maxNodes];
+            start = new int[maxNodes];
+            end = new int[maxNodes];
+            dirty = new boolean[maxNodes];
+        }
+
+        midpoints = new float[3 * count];
+        for (int i = 0; i < count; i++) {
+            edges[i] = i;
+            int a = edgeFrom[i], b = edgeTo[i];
+            midpoints[3*i] = (x[a] + x[b]) / 2;
+            midpoints[3*i+1] = (y[a] + y[b]) / 2;
+            midpoints[3*i+2] = (z[a] + z[b]) / 2;
+        }
+
+        nextNode = new AtomicInteger(1);
+        if (count > 0) {
+            parent[0] = -1;
+            if (parallel && count >= PARALLEL_BUILD_THRESHOLD) ForkJoinPool.commonPool().invoke(new BuildTask(0, 0, count));
+            else buildNode(0, 0, count, false);
+            nodeCount = nextNode.get();
+        }
+        else nodeCount = 0;
+        midpoints = null;
+        nextNode = null;
+
+        for (int i = 0; i < count; i++) {
+            from[i] = edgeFrom[edges[i]];
+            to[i] = edgeTo[edges[i]];
+        }
+        Arrays.fill(dirty, 0, nodeCount, true);
+        anyDirty = true;
+        refit(x, y, z);
+        built = true;
+    }
+
+    /**
+     * Build a node covering the range [first, last) of {@link #edges} and its subtree.
+     * @param node node to build
+     * @param first index of the first edge covered by the node
+     * @param last index after the last edge covered by the node
+     * @param parallel true if the children can be built in parallel (only from inside of a {@link BuildTask})
+     */
+    private void buildNode(int node, int first, int last, boolean parallel) {
+        start[node] = first;
+        end[node] = last;
+        if (last - first <= LEAF_SIZE) {
+            left[node] = -1;
+            for (int i = first; i < last; i++) edgeLeaf[edges[i]] = node;
+            return;
+        }
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = first; i < last; i++) {
+            int m = 3 * edges[i];
+            minX = Math.min(minX, midpoints[m]); maxX = Math.max(maxX, midpoints[m]);
+            minY = Math.min(minY, midpoints[m+1]); maxY = Math.max(maxY, midpoints[m+1]);
+            minZ = Math.min(minZ, midpoints[m+2]); maxZ = Math.max(maxZ, midpoints[m+2]);
+        }
+        float sizeX = maxX - minX, sizeY = maxY - minY, sizeZ = maxZ - minZ;
+        int axis = (sizeX >= sizeY && sizeX >= sizeZ) ? 0 : (sizeY >= sizeZ) ? 1 : 2;
+
+        int middle = (first + last) >>> 1;
+        select(first, last, middle, axis);
+
+        int child = nextNode.getAndAdd(2);
+        left[node] = child;
+        parent[child] = node;
+        parent[child + 1] = node;
+        if (parallel && last - first >= PARALLEL_BUILD_THRESHOLD)
+            RecursiveAction.invokeAll(new BuildTask(child, first, middle), new BuildTask(child + 1, middle, last));
+        else {
+            buildNode(child, first, middle, false);
+            buildNode(child + 1, middle, last, false);
+        }
+    }
+
+    /**
+     * Reorder the range [first, last) of {@link #edges}, so that the edge at nth has the midpoint it would have if the
+     * range was sorted along the axis, all edges before it have smaller or equal midpoints and all edges after it
+     * larger or equal ones.
+     * @param first index of the first edge of the range
+     * @param last index after the last edge of the range
+     * @param nth index of the edge to place
+     * @param axis axis to compare the midpoints along (0 - x, 1 - y, 2 - z)
+     */
+    private void select(int first, int last, int nth, int axis) {
+        int[] order = edges;
+        float[] keys = midpoints;
+        int low = first, high = last - 1;
+        while (low < high) {
+            float a = keys[3*order[low] + axis], b = keys[3*order[(low + high) >>> 1] + axis], c = keys[3*order[high] + axis];
+            float pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+
+            int i = low, j = high;
+            while (i <= j) {
+                while (keys[3*order[i] + axis] < pivot) i++;
+                while (keys[3*order[j] + axis] > pivot) j--;
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            // [low, j] <= pivot, (j, i) == pivot, [i, high] >= pivot
+            if (nth <= j) high = j;
+            else if (nth >= i) low = i;
+            else return;
+        }
+    }
+
+    /**
+     * Mark the hierarchy as outdated after the edges changed, it has to be {@link #build built} again before use.
+     */
+    void invalidate() {
+        built = false;
+    }
+
+    /**
+     * @return true if the hierarchy was built and wasn't invalidated since then
+     */
+    boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Mark the leaves containing edges [first, last) and their ancestors for {@link #refit} after vertices of the
+     * edges moved.
+     * @param first index of the first edge that changed (in the numbering of the {@link World})
+     * @param last index after the last edge that changed
+     */
+    void markEdgesChanged(int first, int last) {
+        for (int i = first; i < last; i++) {
+            for (int node = edgeLeaf[i]; node >= 0 && !dirty[node]; node = parent[node]) dirty[node] = true;
+        }
+        if (first < last) anyDirty = true;
+    }
+
+    /**
+     * Recalculate the bounding boxes of the nodes marked using {@link #markEdgesChanged}.
+     * @param x x coordinates of the vertices
+     * @param y y coordinates of the vertices
+     * @param z z coordinates of the vertices
+     */
+    void refit(float[] x, float[] y, float[] z) {
+        if (!anyDirty) return;
+        // children are stored after their parents, so going backwards updates the children first
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            if (!dirty[node]) continue;
+            dirty[node] = false;
+            int offset = 6 * node;
+            if (left[node] < 0) {
+                float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+                float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+                for (int i = start[node]; i < end[node]; i++) {
+                    int a = from[i], b = to[i];
+                    minX = Math.min(minX, Math.min(x[a], x[b])); maxX = Math.max(maxX, Math.max(x[a], x[b]));
+                    minY = Math.min(minY, Math.min(y[a], y[b])); maxY = Math.max(maxY, Math.max(y[a], y[b]));
+                    minZ = Math.min(minZ, Math.min(z[a], z[b])); maxZ = Math.max(maxZ, Math.max(z[a], z[b]));
+                }
+                bounds[offset] = minX; bounds[offset+1] = minY; bounds[offset+2] = minZ;
+                bounds[offset+3] = maxX; bounds[offset+4] = maxY; bounds[offset+5] = maxZ;
+            } else {
+                int l = 6 * left[node], r = l + 6;
+                for (int i = 0; i < 3; i++) {
+                    bounds[offset+i] = Math.min(bounds[l+i], bounds[r+i]);
+                    bounds[offset+3+i] = Math.max(bounds[l+3+i], bounds[r+3+i]);
+                }
+            }
+        }
+        anyDirty = false;
+    }
+
+    /**
+     * Find the edge closest to the origin of a ray among the edges within tolerance from the ray.
+     * @param origin origin of the ray [x, y, z]
+     * @param direction direction of the ray [x, y, z], doesn't have to be normalized
+     * @param tolerance maximum distance of the edge from the ray
+     * @param x x coordinates of the vertices
+     * @param y y coordinates of the vertices
+     * @param z z coordinates of the vertices
+     * @return index of the edge (in the numbering of the {@link World}), -1 if no edge is close enough to the ray
+     */
+    int raycast(float[] origin, float[] direction, float tolerance, float[] x, float[] y, float[] z) {
+        if (nodeCount == 0) return -1;
+        float length = (float)Math.sqrt(direction[0]*direction[0] + direction[1]*direction[1] + direction[2]*direction[2]);
+        if (!(length > 0)) return -1;
+        float ox = origin[0], oy = origin[1], oz = origin[2];
+        float dx = direction[0] / length, dy = direction[1] / length, dz = direction[2] / length;
+        float toleranceSq = tolerance * tolerance;
+
+        int best = -1;
+        float bestT = Float.POSITIVE_INFINITY;
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (enterBox(node, ox, oy, oz, dx, dy, dz, tolerance) > bestT) continue;
+
+            if (left[node] < 0) {
+                for (int i = start[node]; i < end[node]; i++) {
+                    int a = from[i], b = to[i];
+                    float vx = x[b] - x[a], vy = y[b] - y[a], vz = z[b] - z[a];
+                    float wx = ox - x[a], wy = oy - y[a], wz = oz - z[a];
+                    float uv = dx*vx + dy*vy + dz*vz, vv = vx*vx + vy*vy + vz*vz;
+                    float uw = dx*wx + dy*wy + dz*wz, vw = vx*wx + vy*wy + vz*wz;
+
+                    // closest points of the lines, then clamped to the segment and to the ray
+                    float denominator = vv - uv*uv;
+                    float s = (denominator > 1e-12f * vv) ? (vw - uv*uw) / denominator : 0;
+                    s = clamp01(s);
+                    float t = Math.max(0, s*uv - uw);
+                    s = (vv > 0) ? clamp01((vw + t*uv) / vv) : 0;
+
+                    float px = wx + t*dx - s*vx, py = wy + t*dy - s*vy, pz = wz + t*dz - s*vz;
+                    if (px*px + py*py + pz*pz <= toleranceSq && t < bestT) {
+                        bestT = t;
+                        best = edges[i];
+                    }
+                }
+            } else {
+                if (stackSize + 2 > stack.length) stack = Arrays.copyOf(stack, 2 * stack.length);
+                stack[stackSize++] = left[node];
+                stack[stackSize++] = left[node] + 1;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Intersect a ray with the bounding box of a node enlarged by tolerance.
+     * @param node node
+     * @param ox x coordinate of the origin of the ray
+     * @param oy y coordinate of the origin of the ray
+     * @param oz z coordinate of the origin of the ray
+     * @param dx x component of the normalized direction of the ray
+     * @param dy y component of the normalized direction of the ray
+     * @param dz z component of the normalized direction of the ray
+     * @param tolerance distance to enlarge the box by
+     * @return distance along the ray at which it enters the box (0 if the origin is inside),
+     * {@link Float#POSITIVE_INFINITY} if it misses the box
+     */
+    private float enterBox(int node, float ox, float oy, float oz, float dx, float dy, float dz, float tolerance) {
+        int offset = 6 * node;
+        float enter = 0, exit = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < 3; i++) {
+            float o = (i == 0) ? ox : (i == 1) ? oy : oz, d = (i == 0) ? dx : (i == 1) ? dy : dz;
+            float min = bounds[offset+i] - tolerance, max = bounds[offset+3+i] + tolerance;
+            if (d == 0) {
+                if (o < min || o > max) return Float.POSITIVE_INFINITY;
+                continue;
+            }
+            float t0 = (min - o) / d, t1 = (max - o) / d;
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        return (enter <= exit) ? enter : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @param value value to clamp
+     * @return value clamped to [0, 1]
+     */
+    private static float clamp01(float value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    /**
+     * @return the number of nodes, the root is node 0 (if there are any)
+     */
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of edges in the hierarchy
+     */
+    int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @param node node
+     * @return true if the node is a leaf
+     */
+    boolean isLeaf(int node) {
+        return left[node] < 0;
+    }
+
+    /**
+     * @param node inner node
+     * @return left child of the node, the right child is the next node
+     */
+    int getLeft(int node) {
+        return left[node];
+    }
+
+    /**
+     * @param node node
+     * @return index of the first position in {@link #getEdges()} covered by the node
+     */
+    int getStart(int node) {
+        return start[node];
+    }
+
+    /**
+     * @param node node
+     * @return index after the last position in {@link #getEdges()} covered by the node
+     */
+    int getEnd(int node) {
+        return end[node];
+    }
+
+    /**
+     * @return backing array of bounding boxes of the nodes, 6 values per node [minX, minY, minZ, maxX, maxY, maxZ]
+     */
+    float[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return backing array of the indices of the edges in the order of the leaves
+     */
+    int[] getEdges() {
+        return edges;
+    }
+
+    /**
+     * @return backing array of indices of the first vertices of the edges in the order of {@link #getEdges()}
+     */
+    int[] getFrom() {
+        return from;
+    }
+
+    /**
+     * @return backing array of indices of the second vertices of the edges in the order of {@link #getEdges()}
+     */
+    int[] getTo() {
+        return to;
+    }
+}
@@ -3,13 +3,11 @@ package eu.medek.linerenderer3d;
 import com.jogamp.newt.opengl.GLWindow;
 import eu.medek.linerenderer3d.camera.Camera;
 import eu.medek.linerenderer3d.camera.controllers.RotatingCameraController;
-import eu.medek.linerenderer3d.objects.examples.STLObject;
 import eu.medek.linerenderer3d.objects.examples.*;
 import eu.medek.linerenderer3d.system.KeyController;
 import eu.medek.linerenderer3d.system.Vector;
 import processing.core.PApplet;
 import processing.core.PVector;
-import java.io.IOException;
 import java.nio.file.Path;
 
 /**
@@ -147,6 +145,24 @@ public class Example extends PApplet {
             public void line(float x0, float y0, float x1, float y1) {
                 Example.this.line(x0, y0, x1, y1);
             }
+
+            @Override
+            public void lines(float[] coordinates, int[] colors, float[] weights, int count) {
+                // lines with the same stroke are drawn as a single shape
+                for (int start = 0, end; start < count; start = end) {
+                    end = start + 1;
+                    while (end < count && colors[end] == colors[start] && weights[end] == weights[start]) end++;
+
+                    stroke(colors[start]);
+                    strokeWeight(weights[start]);
+                    beginShape(LINES);
+                    for (int i = start; i < end; i++) {
+                        vertex(coordinates[4*i], coordinates[4*i+1]);
+                        vertex(coordinates[4*i+2], coordinates[4*i+3]);
+                    }
+                    endShape();
+                }
+            }
         });
 
 
@@ -159,12 +175,13 @@ public class Example extends PApplet {
             // create a camera offset from the center, so the object is visible
             camera = new Camera(new float[]{0,-0.5f,-2}, new float[]{0,0,0});
 
-            try {
-                world.addObject(new STLObject(new float[]{0,-0.5f,0}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of(compatibility_mode ? args[1] : args[0]), true));
-            } catch (IOException e) {
+            // the object is loaded in the background and fills in while the scene is being drawn
+            AsyncSTLObject stl = AsyncSTLObject.load(world, new float[]{0,-0.5f,0}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of(compatibility_mode ? args[1] : args[0]), true, STLObject.ALL_EDGES, false);
+            stl.getFuture().exceptionally(e -> {
                 System.err.println("Wrong path or file format.");
                 exit();
-            }
+                return null;
+            });
         } else {  // otherwise create a demo scene
             // create a camera at the center of the scene
             camera = new Camera(new float[]{0,0,0}, new float[]{0,0,0});
@@ -177,13 +194,19 @@ public class Example extends PApplet {
             world.addObject(new Bench(new float[]{0, 0, -1}, new float[]{0,0,0}, new float[]{1f,1f,1f}));
             world.addObject(new NestedLines(new float[]{0, 0, 1}, new float[]{0,0,0}, new float[]{1f,1f,1f}, 5));
             world.addObject(nestedPyramid);
-            try {
-                world.addObject(new STLObject(new float[]{-2,-0.5f,0}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of("STLExamples", "Globe.stl"), true));
-                world.addObject(new STLObject(new float[]{0,-0.5f,0}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of("STLExamples", "Tower.stl"), true));
-                world.addObject(new STLObject(new float[]{2,0,-0.25f}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of("STLExamples", "NameTagIn.stl"), true));
-                world.addObject(new STLObject(new float[]{2,0,0.25f}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of("STLExamples", "NameTagOut.stl"), true));
-            } catch (IOException e) {
-                e.printStackTrace();
+
+            // STL files are loaded in parallel in the background, the first frame doesn't wait for them
+            AsyncSTLObject[] stls = {
+                    AsyncSTLObject.load(world, new float[]{-2,-0.5f,0}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of("STLExamples", "Globe.stl"), true, STLObject.ALL_EDGES, false),
+                    AsyncSTLObject.load(world, new float[]{0,-0.5f,0}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of("STLExamples", "Tower.stl"), true, STLObject.ALL_EDGES, false),
+                    AsyncSTLObject.load(world, new float[]{2,0,-0.25f}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of("STLExamples", "NameTagIn.stl"), true, STLObject.ALL_EDGES, false),
+                    AsyncSTLObject.load(world, new float[]{2,0,0.25f}, new float[]{HALF_PI,0,0}, new float[]{1,1,1}, Path.of("STLExamples", "NameTagOut.stl"), true, STLObject.ALL_EDGES, false)
+            };
+            for (AsyncSTLObject stl : stls) {
+                stl.getFuture().exceptionally(e -> {
+                    e.printStackTrace();
+                    return null;
+                });
             }
         }
 
@@ -201,8 +224,8 @@ public class Example extends PApplet {
         lastTime = newTime;
 
         if (!drawing_stl) { // if we are drawing the demo scene, animate the nestedPyramid
+            // the world detects the change and rewrites only the pyramid's part of its vertex cache
             nestedPyramid.updateRecursionAngle((System.currentTimeMillis() - millisStart) / 1000f * TWO_PI / 10);
-            world.invalidateCache(); // don't forget to invalidate the world vertex/edge caches, since the vertex positions changed
         }
 
         // setup camera
@@ -218,6 +241,7 @@ public class Example extends PApplet {
         boolean debug = keyController.isToggled('k', true);
         boolean crosshair = keyController.isToggled('u', true);
         World.DrawOrder drawOrder = keyController.isToggled('p', true) ? World.DrawOrder.SORT_OBJECTS : World.DrawOrder.SORT_EDGES;
+        if (keyController.isToggled('o', true)) drawOrder = World.DrawOrder.BVH;
 
         // draw the scene
         world.draw(camera, edgeLimitActive?edgeLimit:-1, drawOrder);
@@ -237,6 +261,7 @@ public class Example extends PApplet {
             text("Crosshair shown: " + crosshair, 10, 120);
             text("Speed: " + localSpeed, 10, 140);
             text("FPS: " + frameRate, 10, 160);
+            text("Incremental sort frames: " + world.getIncrementalSortFrames(), 10, 180);
         }
 
         // display crosshair in the middle of frame when toggled
@@ -348,7 +373,6 @@ public class Example extends PApplet {
         // create a new tree when space is pressed (and we are drawing the demo scene)
         if (key == ' ' && !drawing_stl) {
             tree.recalculateVertices();
-            world.invalidateCache();
         }
     }
 
@@ -0,0 +1,308 @@
+package eu.medek.linerenderer3d;
+
+import eu.medek.linerenderer3d.objects.EdgeBuffer;
+import eu.medek.linerenderer3d.objects.EdgeView;
+import eu.medek.linerenderer3d.system.Color;
+
+import java.util.Arrays;
+
+/**
+ * Packed structure-of-arrays storage of the flattened scene used by {@link World}. Every vertex is stored as three
+ * floats in {@link #x}, {@link #y} and {@link #z} and every edge as four ints in {@link #from}, {@link #to},
+ * {@link #color} and {@link #weight}. Arrays grow geometrically, so adding an object costs amortized O(1) per
+ * vertex/edge and there are no per-vertex or per-edge objects on the heap.
+ * <br>
+ * Arrays are only valid up to {@link #getVertexCount()}/{@link #getEdgeCount()}, values after that are unspecified.
+ */
+class GeometryStore {
+    /**
+     * Color used for edges that don't specify their own color (see {@link EdgeBuffer#DEFAULT_COLOR}).
+     */
+    static final int DEFAULT_COLOR = EdgeBuffer.DEFAULT_COLOR;
+
+    /**
+     * Value stored in {@link #weight} for edges that don't specify their own weight (see
+     * {@link EdgeBuffer#NO_WEIGHT}).
+     */
+    static final int NO_WEIGHT = EdgeBuffer.NO_WEIGHT;
+
+    /**
+     * Initial capacity of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Coordinates of the vertices.
+     */
+    private float[] x, y, z;
+
+    /**
+     * Indices of the endpoints of the edges.
+     */
+    private int[] from, to;
+
+    /**
+     * Colors of the edges in the {@link Color} format.
+     */
+    private int[] color;
+
+    /**
+     * Weights of the edges stored using {@link Float#floatToIntBits} or {@link #NO_WEIGHT}.
+     */
+    private int[] weight;
+
+    /**
+     * Number of valid vertices/edges.
+     */
+    private int vertexCount = 0, edgeCount = 0;
+
+    /**
+     * Create an empty store.
+     */
+    GeometryStore() {
+        x = new float[INITIAL_CAPACITY];
+        y = new float[INITIAL_CAPACITY];
+        z = new float[INITIAL_CAPACITY];
+        from = new int[INITIAL_CAPACITY];
+        to = new int[INITIAL_CAPACITY];
+        color = new int[INITIAL_CAPACITY];
+        weight = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Make sure there is space for at least additional vertices without another reallocation.
+     * @param additional number of vertices that are going to be added
+     */
+    void ensureVertexCapacity(int additional) {
+        int required = vertexCount + additional;
+        if (required <= x.length) return;
+        int capacity = grow(x.length, required);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+    }
+
+    /**
+     * Make sure there is space for at least additional edges without another reallocation.
+     * @param additional number of edges that are going to be added
+     */
+    void ensureEdgeCapacity(int additional) {
+        int required = edgeCount + additional;
+        if (required <= from.length) return;
+        int capacity = grow(from.length, required);
+        from = Arrays.copyOf(from, capacity);
+        to = Arrays.copyOf(to, capacity);
+        color = Arrays.copyOf(color, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+    }
+
+    /**
+     * Calculate new capacity by repeatedly doubling the current one.
+     * @param current current capacity
+     * @param required minimum required capacity
+     * @return new capacity, at least required
+     */
+    private static int grow(int current, int required) {
+        long capacity = Math.max(current, 1);
+        while (capacity < required) capacity *= 2;
+        return (int) Math.min(capacity, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Add a vertex. Call {@link #ensureVertexCapacity} first when adding many vertices.
+     * @param vx x coordinate
+     * @param vy y coordinate
+     * @param vz z coordinate
+     * @return index of the new vertex
+     */
+    int addVertex(float vx, float vy, float vz) {
+        ensureVertexCapacity(1);
+        x[vertexCount] = vx;
+        y[vertexCount] = vy;
+        z[vertexCount] = vz;
+        return vertexCount++;
+    }
+
+    /**
+     * Add an edge. Call {@link #ensureEdgeCapacity} first when adding many edges.
+     * @param edgeFrom index of the first vertex
+     * @param edgeTo index of the second vertex
+     * @param edgeColor color of the edge
+     * @param edgeWeight weight of the edge stored using {@link Float#floatToIntBits} or {@link #NO_WEIGHT}
+     * @return index of the new edge
+     */
+    int addEdge(int edgeFrom, int edgeTo, int edgeColor, int edgeWeight) {
+        ensureEdgeCapacity(1);
+        from[edgeCount] = edgeFrom;
+        to[edgeCount] = edgeTo;
+        color[edgeCount] = edgeColor;
+        weight[edgeCount] = edgeWeight;
+        return edgeCount++;
+    }
+
+    /**
+     * Add all edges from a buffer.
+     * @param edges edges to add
+     */
+    void addEdges(EdgeBuffer edges) {
+        ensureEdgeCapacity(edges.size());
+        setEdges(edgeCount, edges, 0);
+        edgeCount += edges.size();
+    }
+
+    /**
+     * Add all edges from a view.
+     * @param edges edges to add
+     */
+    void addEdges(EdgeView edges) {
+        ensureEdgeCapacity(edges.size());
+        setEdges(edgeCount, edges);
+        edgeCount += edges.size();
+    }
+
+    /**
+     * Overwrite a vertex.
+     * @param index index of the vertex
+     * @param vx x coordinate
+     * @param vy y coordinate
+     * @param vz z coordinate
+     */
+    void setVertex(int index, float vx, float vy, float vz) {
+        x[index] = vx;
+        y[index] = vy;
+        z[index] = vz;
+    }
+
+    /**
+     * Overwrite consecutive edges with the edges from a view.
+     * @param start index of the first edge to overwrite
+     * @param edges new edges
+     */
+    void setEdges(int start, EdgeView edges) {
+        int[] next = {start};
+        edges.forEachSegment((segment, vertexOffset) -> {
+            setEdges(next[0], segment, vertexOffset);
+            next[0] += segment.size();
+        });
+    }
+
+    /**
+     * Overwrite consecutive edges with the edges from a buffer.
+     * @param start index of the first edge to overwrite
+     * @param edges new edges
+     * @param vertexOffset number added to the vertex indices of the edges
+     */
+    void setEdges(int start, EdgeBuffer edges, int vertexOffset) {
+        int[] data = edges.getData();
+        for (int i = 0, offset = 0; i < edges.size(); i++, offset += EdgeBuffer.STRIDE) {
+            from[start + i] = data[offset + EdgeBuffer.FROM] + vertexOffset;
+            to[start + i] = data[offset + EdgeBuffer.TO] + vertexOffset;
+            color[start + i] = data[offset + EdgeBuffer.COLOR];
+            weight[start + i] = data[offset + EdgeBuffer.WEIGHT];
+        }
+    }
+
+    /**
+     * Move all vertices starting at start by delta positions, changing the number of vertices by delta. With positive
+     * delta, vertices at [start, start+delta) are left unspecified, with negative delta, vertices at
+     * [start+delta, start) are overwritten. Edges are not updated.
+     * @param start index of the first vertex to move
+     * @param delta number of positions to move the vertices by
+     */
+    void shiftVertices(int start, int delta) {
+        ensureVertexCapacity(delta);
+        int length = vertexCount - start;
+        System.arraycopy(x, start, x, start + delta, length);
+        System.arraycopy(y, start, y, start + delta, length);
+        System.arraycopy(z, start, z, start + delta, length);
+        vertexCount += delta;
+    }
+
+    /**
+     * Move all edges starting at start by delta positions, changing the number of edges by delta. With positive
+     * delta, edges at [start, start+delta) are left unspecified, with negative delta, edges at [start+delta, start)
+     * are overwritten.
+     * @param start index of the first edge to move
+     * @param delta number of positions to move the edges by
+     */
+    void shiftEdges(int start, int delta) {
+        ensureEdgeCapacity(delta);
+        int length = edgeCount - start;
+        System.arraycopy(from, start, from, start + delta, length);
+        System.arraycopy(to, start, to, start + delta, length);
+        System.arraycopy(color, start, color, start + delta, length);
+        System.arraycopy(weight, start, weight, start + delta, length);
+        edgeCount += delta;
+    }
+
+    /**
+     * Remove all vertices and edges, but keep the allocated arrays for reuse.
+     */
+    void clear() {
+        vertexCount = 0;
+        edgeCount = 0;
+    }
+
+    /**
+     * @return the number of vertices in the store
+     */
+    int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * @return the number of edges in the store
+     */
+    int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return backing array of x coordinates of the vertices
+     */
+    float[] getX() {
+        return x;
+    }
+
+    /**
+     * @return backing array of y coordinates of the vertices
+     */
+    float[] getY() {
+        return y;
+    }
+
+    /**
+     * @return backing array of z coordinates of the vertices
+     */
+    float[] getZ() {
+        return z;
+    }
+
+    /**
+     * @return backing array of indices of the first vertices of the edges
+     */
+    int[] getFrom() {
+        return from;
+    }
+
+    /**
+     * @return backing array of indices of the second vertices of the edges
+     */
+    int[] getTo() {
+        return to;
+    }
+
+    /**
+     * @return backing array of colors of the edges
+     */
+    int[] getColor() {
+        return color;
+    }
+
+    /**
+     * @return backing array of weights of the edges (see {@link #NO_WEIGHT})
+     */
+    int[] getWeight() {
+        return weight;
+    }
+}
@@ -1,5 +1,7 @@
 package eu.medek.linerenderer3d;
 
+import eu.medek.linerenderer3d.system.Color;
+
 /**
  * Interface that needs to be implemented in order to use the 3DLineRenderer project - {@link World} class uses it to
  * draw the calculated edges.
@@ -40,4 +42,25 @@ public interface Renderer {
      * @param y1 Y coordinate of the second point
      */
     void line(float x0, float y0, float x1, float y1);
+
+    /**
+     * Draw a batch of lines, each with its own stroke color and weight. The World class submits all lines of a frame
+     * this way, in batches of limited size. The default implementation draws the lines one by one using
+     * {@link #line}, calling {@link #setStrokeColor} and {@link #setStrokeWeight} only when the value differs from the
+     * previous line of the batch. Implementations able to draw many lines at once (or to skip the per-line state
+     * changes) should override it.
+     * @param coordinates coordinates of the lines as [x0, y0, x1, y1, x0, y0, x1, y1, ...], in the same range as for
+     *                    {@link #line}
+     * @param colors stroke color of each line as 0xffRRGGBB (see {@link Color})
+     * @param weights stroke weight of each line
+     * @param count number of lines to draw (arrays can be longer)
+     */
+    default void lines(float[] coordinates, int[] colors, float[] weights, int count) {
+        for (int i = 0; i < count; i++) {
+            int color = colors[i];
+            if (i == 0 || color != colors[i - 1]) setStrokeColor(Color.getR(color), Color.getG(color), Color.getB(color));
+            if (i == 0 || weights[i] != weights[i - 1]) setStrokeWeight(weights[i]);
+            line(coordinates[4*i], coordinates[4*i+1], coordinates[4*i+2], coordinates[4*i+3]);
+        }
+    }
 }
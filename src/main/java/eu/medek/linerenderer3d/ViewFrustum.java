@@ -0,0 +1,119 @@
+package eu.medek.linerenderer3d;
+
+/**
+ * The part of world space visible in the window, bounded by the near plane and four planes going through the camera
+ * and the sides of the window. Planes are kept in world space, so that testing a bounding sphere takes only five dot
+ * products.
+ */
+class ViewFrustum {
+    /**
+     * Result of {@link #classify} - sphere is entirely outside of the frustum.
+     */
+    static final int OUTSIDE = 0;
+
+    /**
+     * Result of {@link #classify} - sphere is partially inside of the frustum.
+     */
+    static final int INTERSECTING = 1;
+
+    /**
+     * Result of {@link #classify} - sphere is entirely inside of the frustum.
+     */
+    static final int INSIDE = 2;
+
+    /**
+     * Number of planes (near, left, right, top, bottom).
+     */
+    private static final int PLANES = 5;
+
+    /**
+     * Planes in world space, 4 values per plane [nx, ny, nz, k] with unit normal pointing inside - point p is inside
+     * of the plane if n.p + k &gt;= 0.
+     */
+    private final float[] planes = new float[PLANES * 4];
+
+    /**
+     * Calculate the planes for the current camera and window.
+     * @param toCameraMatrix matrix for converting from world space to camera space (rotation and translation only)
+     * @param toScreenMatrix matrix for converting from perspective space to window space (scale and translation only)
+     * @param d "d" parameter used for converting to perspective space
+     * @param width width of the window
+     * @param height height of the window
+     * @param near distance of the near plane from the camera
+     */
+    void update(float[][] toCameraMatrix, float[][] toScreenMatrix, float d, int width, int height, float near) {
+        // window x = toScreen[0][0] * d * x/z + toScreen[0][3], so the sides of the window are at these x/z (y/z)
+        float left = -toScreenMatrix[0][3] / (toScreenMatrix[0][0] * d);
+        float right = (width - toScreenMatrix[0][3]) / (toScreenMatrix[0][0] * d);
+        float top = -toScreenMatrix[1][3] / (toScreenMatrix[1][1] * d);
+        float bottom = (height - toScreenMatrix[1][3]) / (toScreenMatrix[1][1] * d);
+
+        setPlane(0, toCameraMatrix, 0, 0, 1, -near);
+        setPlane(1, toCameraMatrix, 1, 0, -left, 0);
+        setPlane(2, toCameraMatrix, -1, 0, right, 0);
+        setPlane(3, toCameraMatrix, 0, 1, -top, 0);
+        setPlane(4, toCameraMatrix, 0, -1, bottom, 0);
+    }
+
+    /**
+     * Convert a plane from camera space to world space, normalize it and store it.
+     * @param id index of the plane
+     * @param toCameraMatrix matrix for converting from world space to camera space (rotation and translation only)
+     * @param nx x component of the normal in camera space
+     * @param ny y component of the normal in camera space
+     * @param nz z component of the normal in camera space
+     * @param k plane offset in camera space
+     */
+    private void setPlane(int id, float[][] toCameraMatrix, float nx, float ny, float nz, float k) {
+        float length = (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        k /= length;
+
+        // n.(R p + t) + k = (R^T n).p + (n.t + k)
+        float[][] m = toCameraMatrix;
+        planes[4*id] = m[0][0]*nx + m[1][0]*ny + m[2][0]*nz;
+        planes[4*id+1] = m[0][1]*nx + m[1][1]*ny + m[2][1]*nz;
+        planes[4*id+2] = m[0][2]*nx + m[1][2]*ny + m[2][2]*nz;
+        planes[4*id+3] = m[0][3]*nx + m[1][3]*ny + m[2][3]*nz + k;
+    }
+
+    /**
+     * Test a sphere against the frustum. The test is conservative - sphere can be classified as intersecting even if
+     * it is outside (near the corners of the frustum), but never the other way around.
+     * @param x x coordinate of the center of the sphere in world space
+     * @param y y coordinate of the center of the sphere in world space
+     * @param z z coordinate of the center of the sphere in world space
+     * @param radius radius of the sphere
+     * @return {@link #OUTSIDE}, {@link #INTERSECTING} or {@link #INSIDE}
+     */
+    int classify(float x, float y, float z, float radius) {
+        int result = INSIDE;
+        for (int i = 0; i < planes.length; i += 4) {
+            float distance = planes[i]*x + planes[i+1]*y + planes[i+2]*z + planes[i+3];
+            if (distance < -radius) return OUTSIDE;
+            if (distance < radius) result = INTERSECTING;
+        }
+        return result;
+    }
+
+    /**
+     * Test an axis-aligned box against the frustum. The test is conservative in the same way as {@link #classify}.
+     * @param bounds array containing the box as [minX, minY, minZ, maxX, maxY, maxZ] in world space
+     * @param offset index of minX in bounds
+     * @return {@link #OUTSIDE}, {@link #INTERSECTING} or {@link #INSIDE}
+     */
+    int classifyBox(float[] bounds, int offset) {
+        int result = INSIDE;
+        for (int i = 0; i < planes.length; i += 4) {
+            float nx = planes[i], ny = planes[i+1], nz = planes[i+2], k = planes[i+3];
+            // corner of the box furthest along the normal and the corner furthest against it
+            float far = nx * bounds[offset + (nx >= 0 ? 3 : 0)] + ny * bounds[offset + (ny >= 0 ? 4 : 1)] + nz * bounds[offset + (nz >= 0 ? 5 : 2)] + k;
+            if (far < 0) return OUTSIDE;
+            float near = nx * bounds[offset + (nx >= 0 ? 0 : 3)] + ny * bounds[offset + (ny >= 0 ? 1 : 4)] + nz * bounds[offset + (nz >= 0 ? 2 : 5)] + k;
+            if (near < 0) result = INTERSECTING;
+        }
+        return result;
+    }
+}
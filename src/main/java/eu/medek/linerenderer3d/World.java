@@ -1,13 +1,24 @@
 package eu.medek.linerenderer3d;
 
 import eu.medek.linerenderer3d.camera.Camera;
-import eu.medek.linerenderer3d.system.Color;
+import eu.medek.linerenderer3d.system.LineClipper;
 import eu.medek.linerenderer3d.system.Matrix3D;
+import eu.medek.linerenderer3d.system.RadixSort;
+import eu.medek.linerenderer3d.objects.EdgeBuffer;
+import eu.medek.linerenderer3d.objects.EdgeLevels;
+import eu.medek.linerenderer3d.objects.EdgeView;
+import eu.medek.linerenderer3d.objects.InstancedObject;
+import eu.medek.linerenderer3d.objects.Mesh;
 import eu.medek.linerenderer3d.objects.Object3D;
+import eu.medek.linerenderer3d.objects.SilhouetteEdges;
 import eu.medek.linerenderer3d.system.Vector;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Class for representing and rendering the current 3D scene.
@@ -27,339 +38,1881 @@ public class World {
          * Sort the objects by their distance from camera. Then draw the furthest first with edges in any order. This is
          * faster, but doesn't look as good.
          */
-        SORT_OBJECTS
+        SORT_OBJECTS,
+        /**
+         * Traverse a bounding volume hierarchy over the edges from the furthest node to the nearest, skipping nodes
+         * outside of the view. Edges are drawn in approximately back-to-front order without sorting them, which is the
+         * fastest option for scenes with millions of edges.
+         */
+        BVH
+    }
+
+    /**
+     * Work on a range of indices [start, end). Used to run the same per-vertex/per-edge code either sequentially or
+     * split into chunks on a {@link ForkJoinPool}.
+     */
+    private interface RangeAction {
+        /**
+         * @param start index of the first element to process
+         * @param end index after the last element to process
+         */
+        void run(int start, int end);
+    }
+
+    /**
+     * Task recursively splitting a range in halves until it is at most {@link World#PARALLEL_CHUNK} long, then running
+     * {@link RangeAction} on it.
+     */
+    private static class RangeTask extends RecursiveAction {
+        /**
+         * Tasks are never serialized, the version only satisfies {@link java.io.Serializable}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Action to run on the range.
+         */
+        private final RangeAction action;
+
+        /**
+         * Range [start, end) to process.
+         */
+        private final int start, end;
+
+        /**
+         * @param action action to run on the range
+         * @param start index of the first element to process
+         * @param end index after the last element to process
+         */
+        RangeTask(RangeAction action, int start, int end) {
+            this.action = action;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void compute() {
+            if (end - start <= PARALLEL_CHUNK) action.run(start, end);
+            else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new RangeTask(action, start, middle), new RangeTask(action, middle, end));
+            }
+        }
+    }
+
+    //const
+    /**
+     * Default value for {@link World#parallelThreshold}.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 65536;
+
+    /**
+     * Maximum number of vertices/edges processed by one task in parallel mode.
+     */
+    private static final int PARALLEL_CHUNK = 16384;
+
+    /**
+     * Default value for {@link World#nearPlane}.
+     */
+    public static final float DEFAULT_NEAR_PLANE = 0.01f;
+
+    /**
+     * Value of {@link World#edgeState} - edge is entirely behind the near plane and isn't drawn.
+     */
+    private static final byte EDGE_HIDDEN = 0;
+
+    /**
+     * Value of {@link World#edgeState} - edge is entirely in front of the near plane.
+     */
+    private static final byte EDGE_IN_FRONT = 1;
+
+    /**
+     * Value of {@link World#edgeState} - edge crosses the near plane and has to be cut before drawing.
+     */
+    private static final byte EDGE_CROSSING = 2;
+
+    /**
+     * Value of {@link World#edgeState} - edge belongs to an object drawn using its silhouette or a level of detail in
+     * the current frame, it isn't projected, drawn or counted against the edge limit.
+     */
+    private static final byte EDGE_REPLACED = 3;
+
+    /**
+     * The order from the last frame is fixed up using insertion sort only if at most 1/NEARLY_SORTED_RATIO of the
+     * neighbouring edges are in the wrong order.
+     */
+    private static final int NEARLY_SORTED_RATIO = 4;
+
+    /**
+     * Insertion sort of the order from the last frame gives up (and full sort is used instead) after moving
+     * INSERTION_SORT_BUDGET times the number of edges.
+     */
+    private static final int INSERTION_SORT_BUDGET = 4;
+
+    /**
+     * A {@link EdgeLevels level of detail} is used for an object only if one cell of its grid covers at most this many
+     * pixels.
+     */
+    private static final float LOD_PIXELS_PER_CELL = 2;
+
+    /**
+     * "d" parameter for converting to perspective space.
+     */
+    private static final float d = 1;
+
+    /**
+     * Matrix for converting from camera space to perspective space.
+     */
+    private static final float[][] toPerspectiveMatrix = new float[][] {{1,0,0,0}, {0,1,0,0}, {0,0,1,0}, {0,0,1/d,0}};
+
+
+    //var
+    /**
+     * List of 3D objects to render.
+     */
+    private ArrayList<Object3D> objects = new ArrayList<>();
+
+    /**
+     * Tasks scheduled from any thread using {@link World#invokeLater} to be run at the start of the next frame.
+     */
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Cached flattened vertices of all objects in world space and edges of all objects except for
+     * {@link InstancedObject instances}. Cache is useful, otherwise we would need to copy edges and vertices from each
+     * object each frame and update edges with new positions of their vertices. Null if the cache is invalidated.
+     */
+    private GeometryStore geometry = null;
+
+    /**
+     * Index of the first vertex of each object (in the order of {@link World#objects}) in {@link World#geometry} and
+     * index of the first edge of each object in the scene (edges of all objects are numbered consecutively, this is
+     * the index used by {@link World#edgeOrder}, {@link World#edgeState} and edge ranges). One more value is stored
+     * after the last object, so object i spans [start[i], start[i+1]).
+     */
+    private int[] objectVertexStart = new int[1], objectEdgeStart = new int[1];
+
+    /**
+     * Store containing the edges of each object - {@link World#geometry} or, for {@link InstancedObject instances},
+     * the store of their mesh from {@link World#meshStores}. Edges are stored with vertex indices relative to the first
+     * vertex of the object, so that instances can share them.
+     */
+    private GeometryStore[] objectEdgeSource = new GeometryStore[0];
+
+    /**
+     * Index of the first edge of each object in its {@link World#objectEdgeSource}.
+     */
+    private int[] objectEdgeSourceStart = new int[0];
+
+    /**
+     * World space bounding spheres of {@link InstancedObject instances}, 4 values [x, y, z, radius] per object (unused
+     * for other objects).
+     */
+    private float[] instanceSpheres = new float[0];
+
+    /**
+     * Local vertices and edges of each {@link Mesh} used by the {@link InstancedObject instances} in the scene. Every
+     * mesh is stored only once, regardless of the number of its instances.
+     */
+    private final IdentityHashMap<Mesh, GeometryStore> meshStores = new IdentityHashMap<>();
+
+    /**
+     * {@link Object3D#getVertexCacheVersion() Vertex cache version} and
+     * {@link Object3D#getStructureVersion() structure version} of each object (in the order of {@link World#objects})
+     * at the time its vertices and edges were copied into {@link World#geometry}.
+     */
+    private long[] objectVertexVersion = new long[0], objectStructureVersion = new long[0];
+
+    /**
+     * Order in which the edges were drawn in the last {@link DrawOrder#SORT_EDGES} frame. It is kept between frames,
+     * because sorting an almost sorted order is fast.
+     */
+    private int[] edgeOrder = new int[0];
+
+    /**
+     * Depth keys of the edges in {@link World#edgeOrder} (key at index i belongs to edge edgeOrder[i]) - squared distance
+     * of the edge midpoint from the camera converted using {@link RadixSort#toDescendingKey}, calculated once per edge
+     * every frame.
+     */
+    private int[] edgeKeys = new int[0];
+
+    /**
+     * Depth key of each edge (indexed by the edge, unlike {@link World#edgeKeys}), calculated every frame the edges
+     * get sorted.
+     */
+    private int[] edgeDepthKeys = new int[0];
+
+    /**
+     * Radix sort used to order {@link World#edgeOrder} by {@link World#edgeKeys}.
+     */
+    private final RadixSort edgeSorter = new RadixSort();
+
+    /**
+     * Camera position used by {@link World#computeDepthKeys}.
+     */
+    private float[] sortCameraPosition;
+
+    /**
+     * Camera position for which {@link World#edgeOrder} was sorted. Depth keys don't depend on camera rotation, so the
+     * order stays valid while the camera only rotates.
+     */
+    private float sortedCameraX, sortedCameraY, sortedCameraZ;
+
+    /**
+     * Value of {@link World#geometryVersion} for which {@link World#edgeOrder} was sorted, -1 if it was never sorted.
+     */
+    private long sortedGeometryVersion = -1;
+
+    /**
+     * Incremented every time the content of {@link World#geometry} changes, used to detect that the edge order from
+     * the last frame is no longer valid.
+     */
+    private long geometryVersion = 0;
+
+    /**
+     * Hierarchy over the cached edges, created when it's needed for the first time.
+     */
+    private EdgeBVH bvh = null;
+
+    /**
+     * Value of {@link World#geometryVersion} the {@link World#bvh} was built or refitted for.
+     */
+    private long bvhGeometryVersion = -1;
+
+    /**
+     * Scratch buffers with the indices of the vertices of each edge in {@link World#geometry}, used to build the
+     * {@link World#bvh}.
+     */
+    private int[] bvhEdgeFrom = new int[0], bvhEdgeTo = new int[0];
+
+    /**
+     * Scratch stack of nodes for traversing the {@link World#bvh}. Nodes entirely inside of the view frustum are
+     * stored as -node-1.
+     */
+    private int[] bvhStack = new int[64];
+
+    /**
+     * Leaves of the {@link World#bvh} that passed culling in the order in which they are drawn.
+     */
+    private int[] bvhLeafOrder = new int[0];
+
+    /**
+     * Number of valid leaves in {@link World#bvhLeafOrder} and the number of edges in them.
+     */
+    private int bvhLeafCount = 0, bvhLeafEdgeCount = 0;
+
+    /**
+     * Number of {@link DrawOrder#SORT_EDGES} frames that reused the edge order from the last frame - either without any
+     * change or fixed up using insertion sort - instead of sorting all edges.
+     */
+    private long incrementalSortFrames = 0;
+
+    /**
+     * Order in which the objects are drawn in {@link DrawOrder#SORT_OBJECTS} (indices into {@link World#objects}).
+     */
+    private int[] objectOrder = new int[0];
+
+    /**
+     * Scratch buffer for squared distances of objects from the camera used to sort {@link World#objectOrder}.
+     */
+    private float[] objectDistance = new float[0];
+
+    /**
+     * Scratch buffers with the projected vertices - window x and y coordinates and the perspective w coordinate (camera
+     * z divided by {@link World#d}) of each vertex in {@link World#geometry}. Window coordinates are valid only if the
+     * vertex is in front of the near plane (w is at least {@link World#nearW}). Buffers are reused between frames and
+     * only grow, so that drawing a frame doesn't allocate.
+     */
+    private float[] screenX = new float[0], screenY = new float[0], screenW = new float[0];
+
+    /**
+     * Scratch buffer with the result of the near plane test of each edge in {@link World#geometry} -
+     * {@link World#EDGE_HIDDEN}, {@link World#EDGE_IN_FRONT}, {@link World#EDGE_CROSSING} or
+     * {@link World#EDGE_REPLACED}.
+     */
+    private byte[] edgeState = new byte[0];
+
+    /**
+     * Distance of the near plane from the camera. Parts of edges closer to the camera (or behind it) are cut off.
+     */
+    private float nearPlane = DEFAULT_NEAR_PLANE;
+
+    /**
+     * Perspective w coordinate of the near plane ({@link World#nearPlane} divided by {@link World#d}).
+     */
+    private float nearW = DEFAULT_NEAR_PLANE / d;
+
+    /**
+     * True if objects (and their nested objects) outside of the view frustum should be skipped before any per-vertex
+     * work is done.
+     */
+    private boolean frustumCulling = true;
+
+    /**
+     * View frustum of the current frame.
+     */
+    private final ViewFrustum frustum = new ViewFrustum();
+
+    /**
+     * True if objects with {@link Object3D#getEdgeLevels() levels of detail} should be drawn using a simplified
+     * version of their edges when they are small on the screen.
+     */
+    private boolean levelOfDetail = true;
+
+    /**
+     * Level of detail used for each object in the current frame, null for objects drawn with all their edges.
+     */
+    private EdgeLevels.Level[] objectLevel = new EdgeLevels.Level[0];
+
+    /**
+     * Silhouette used for each object in the current frame, null for objects drawn with their edges or a level of
+     * detail.
+     */
+    private SilhouetteEdges[] objectSilhouette = new SilhouetteEdges[0];
+
+    /**
+     * Position of the camera in local space of the object whose silhouette is being found.
+     */
+    private final float[] silhouetteCamera = new float[3];
+
+    /**
+     * Edges of the objects drawn using a silhouette or a level of detail in the current frame, collected by
+     * {@link World#collectSimplified} - index of the object and offset of the edge in the data of its
+     * {@link EdgeBuffer}.
+     */
+    private int[] simplifiedEdgeObject = new int[0], simplifiedEdgeOffset = new int[0];
+
+    /**
+     * Depth keys of the collected simplified edges (same as {@link World#edgeKeys}) and the indices of the edges in
+     * {@link World#simplifiedEdgeObject} sorted by them.
+     */
+    private int[] simplifiedKeys = new int[0], simplifiedOrder = new int[0];
+
+    /**
+     * Number of valid simplified edges in {@link World#simplifiedEdgeObject} and the related arrays.
+     */
+    private int simplifiedEdgeCount = 0;
+
+    /**
+     * Number of objects drawn using a silhouette or a level of detail in the current frame, set by
+     * {@link World#selectLevels}.
+     */
+    private int simplifiedObjectCount = 0;
+
+    /**
+     * Radix sort used to order {@link World#simplifiedOrder} by {@link World#simplifiedKeys}.
+     */
+    private final RadixSort simplifiedSorter = new RadixSort();
+
+    /**
+     * Ranges of cached vertices that passed frustum culling in the current frame, stored as [start, end) pairs.
+     */
+    private int[] vertexRanges = new int[0];
+
+    /**
+     * Ranges of cached edges that passed frustum culling in the current frame, stored as [start, end) pairs.
+     */
+    private int[] edgeRanges = new int[0];
+
+    /**
+     * Number of values used in {@link World#vertexRanges} and {@link World#edgeRanges} (twice the number of ranges).
+     */
+    private int vertexRangesLength = 0, edgeRangesLength = 0;
+
+    /**
+     * Index of the first range of each object (in the order of {@link World#objects}) in {@link World#edgeRanges}.
+     * One more value is stored after the last object, so ranges of object i are at [start[i], start[i+1]).
+     */
+    private int[] objectEdgeRangeStart = new int[1];
+
+    /**
+     * Index of the first edge range of the object being culled - edge ranges of different objects must not be merged,
+     * because they are drawn in different order with {@link DrawOrder#SORT_OBJECTS}.
+     */
+    private int firstMergeableEdgeRange = 0;
+
+    /**
+     * True if vertex transformation and edge visibility tests should be split across the common {@link ForkJoinPool}.
+     */
+    private boolean parallel = false;
+
+    /**
+     * Minimum number of vertices/edges for which the work is run in parallel (if {@link World#parallel} is enabled).
+     * Smaller scenes are processed sequentially, so they don't pay the fork overhead.
+     */
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * {@link World#projectVertices} as a {@link RangeAction}, created once, so that the sequential path doesn't
+     * allocate.
+     */
+    private final RangeAction projectVerticesAction = this::projectVertices;
+
+    /**
+     * {@link World#testEdgeVisibility} as a {@link RangeAction}, created once, so that the sequential path doesn't
+     * allocate.
+     */
+    private final RangeAction testEdgeVisibilityAction = this::testEdgeVisibility;
+
+    /**
+     * {@link World#computeEdgeDepths} as a {@link RangeAction}, created once, so that the sequential path doesn't
+     * allocate.
+     */
+    private final RangeAction computeEdgeDepthsAction = this::computeEdgeDepths;
+
+    /**
+     * {@link World#computeDepthKeys} as a {@link RangeAction}, created once, so that the sequential path doesn't
+     * allocate.
+     */
+    private final RangeAction computeDepthKeysAction = this::computeDepthKeys;
+
+    /**
+     * {@link World#resolveEdges} as a {@link RangeAction}, created once.
+     */
+    private final RangeAction resolveEdgesAction = this::resolveEdges;
+
+    /**
+     * {@link World#projectBvhLeaves} as a {@link RangeAction}, created once, so that the sequential path doesn't
+     * allocate.
+     */
+    private final RangeAction projectBvhLeavesAction = this::projectBvhLeaves;
+
+    /**
+     * Renderer used to render the scene.
+     */
+    private Renderer renderer;
+
+    /**
+     * Cached values for output's width/height. They are automatically updated every frame if necessary.
+     */
+    private int windowWidth = 0, windowHeight = 0;
+
+    /**
+     * Matrix for converting from perspective space to window space.
+     */
+    private float[][] toScreenMatrix;
+
+    /**
+     * Matrix for converting from world space to camera space, recalculated every frame.
+     */
+    private final float[][] toCameraMatrix = new float[4][4];
+
+    /**
+     * Matrix for converting from world space directly to window space (before the division by w) - toScreen *
+     * toPerspective * toCamera, recalculated every frame.
+     */
+    private final float[][] projectionMatrix = new float[4][4];
+
+    /**
+     * Scratch matrix for calculating {@link World#projectionMatrix}.
+     */
+    private final float[][] tempMatrix = new float[4][4];
+
+    /**
+     * Scratch buffer for the line clipped by {@link World#drawLineClipped}.
+     */
+    private final float[] clippedLine = new float[4];
+
+    /**
+     * Scratch buffer for window coordinates of the point where an edge crosses the near plane.
+     */
+    private final float[] nearPoint = new float[2];
+
+    /**
+     * Maximum number of lines submitted to the {@link World#renderer} in one {@link Renderer#lines} call.
+     */
+    private static final int LINE_BATCH_SIZE = 1024;
+
+    /**
+     * Lines waiting to be submitted to the {@link World#renderer} as [x0, y0, x1, y1, ...].
+     */
+    private final float[] batchCoordinates = new float[4 * LINE_BATCH_SIZE];
+
+    /**
+     * Stroke colors of lines waiting to be submitted.
+     */
+    private final int[] batchColors = new int[LINE_BATCH_SIZE];
+
+    /**
+     * Stroke weights of lines waiting to be submitted.
+     */
+    private final float[] batchWeights = new float[LINE_BATCH_SIZE];
+
+    /**
+     * Number of lines waiting to be submitted.
+     */
+    private int batchCount = 0;
+
+    /**
+     * Stroke color of the edge being drawn.
+     */
+    private int lineColor = GeometryStore.DEFAULT_COLOR;
+
+    /**
+     * Stroke weight of the edge being drawn.
+     */
+    private float lineWeight = 1;
+
+    /**
+     * Constructor for the World object.
+     * @param renderer renderer to use to render the scene
+     */
+    public World(Renderer renderer) {
+        this.renderer = renderer;
+        setToScreenMatrix();
+    }
+
+
+    /**
+     * Add {@link Object3D 3D object} to the scene.
+     * @param obj the {@link Object3D 3D object} to be added
+     */
+    public void addObject(Object3D obj) {
+        objects.add(obj);
+        addObjectToCache(obj);
+    }
+
+    /**
+     * Schedule a task to be run on the thread drawing the scene at the start of the next {@link World#draw frame}.
+     * Unlike the other methods of the World, this can be called from any thread, so background threads (e.g. loading
+     * an object) can use it to add or modify objects without synchronizing with the drawing.
+     * @param task task to run, it can modify the scene and its objects
+     */
+    public void invokeLater(Runnable task) {
+        pendingTasks.add(task);
+    }
+
+    /**
+     * Enable or disable parallel mode. In parallel mode, vertex transformation and edge visibility tests of scenes
+     * larger than {@link World#setParallelThreshold threshold} are split into chunks and run on the common
+     * {@link ForkJoinPool}. Edges are still drawn from the calling thread in the same order as in sequential mode.
+     * Parallel mode is disabled by default.
+     * @param parallel true to enable parallel mode, false to disable it
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return true if parallel mode is enabled
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Set the minimum number of vertices/edges for which the work is split across threads in parallel mode. Default
+     * value is {@link World#DEFAULT_PARALLEL_THRESHOLD}.
+     * @param parallelThreshold minimum number of vertices/edges to process in parallel
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @return minimum number of vertices/edges for which the work is split across threads in parallel mode
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Set the distance of the near plane from the camera. Edges crossing the near plane get cut at it, edges entirely
+     * closer to the camera (or behind it) aren't drawn. Default value is {@link World#DEFAULT_NEAR_PLANE}.
+     * @param nearPlane distance of the near plane from the camera, has to be positive
+     */
+    public void setNearPlane(float nearPlane) {
+        if (!(nearPlane > 0)) throw new IllegalArgumentException("Near plane distance has to be positive.");
+        this.nearPlane = nearPlane;
+        this.nearW = nearPlane / d;
+    }
+
+    /**
+     * @return distance of the near plane from the camera
+     */
+    public float getNearPlane() {
+        return nearPlane;
+    }
+
+    /**
+     * Enable or disable frustum culling. When enabled, objects and nested objects whose
+     * {@link Object3D#getBoundingSphere() bounding sphere} is outside of the view frustum are skipped as a whole before
+     * any of their vertices get transformed. Enabled by default.
+     * @param frustumCulling true to enable frustum culling, false to disable it
+     */
+    public void setFrustumCulling(boolean frustumCulling) {
+        this.frustumCulling = frustumCulling;
+    }
+
+    /**
+     * @return true if frustum culling is enabled
+     */
+    public boolean isFrustumCulling() {
+        return frustumCulling;
+    }
+
+    /**
+     * Enable or disable levels of detail. When enabled, objects with {@link Object3D#getEdgeLevels() levels of detail}
+     * are drawn using the coarsest level whose grid cells cover at most {@link World#LOD_PIXELS_PER_CELL} pixels.
+     * Levels get built on a background thread when they're needed for the first time, the full edges are drawn until
+     * then. In {@link DrawOrder#SORT_EDGES} the edges of simplified objects are sorted together with all other edges,
+     * in {@link DrawOrder#BVH} each of them is drawn before the first leaf whose center is nearer to the camera.
+     * Enabled by default.
+     * @param levelOfDetail true to enable levels of detail, false to always draw all edges
+     */
+    public void setLevelOfDetail(boolean levelOfDetail) {
+        this.levelOfDetail = levelOfDetail;
+    }
+
+    /**
+     * @return true if levels of detail are enabled
+     */
+    public boolean isLevelOfDetail() {
+        return levelOfDetail;
+    }
+
+    /**
+     * Correctly set the toScreen matrix when the output and cached resolution (and by extention the resolution used for
+     * the toScreen matrix)  don't match.
+     */
+    private void setToScreenMatrix() {
+        if (renderer.getWidth() != windowWidth || renderer.getHeight() != windowHeight) {
+            windowWidth = renderer.getWidth();
+            windowHeight = renderer.getHeight();
+
+            if (windowHeight < windowWidth) toScreenMatrix = Matrix3D.multiply(Matrix3D.getScale(windowHeight,windowHeight,1), Matrix3D.getTranslate(windowWidth*0.5f/windowHeight,0.5f,0));
+            else toScreenMatrix = Matrix3D.multiply(Matrix3D.getScale(windowWidth,windowWidth,1), Matrix3D.getTranslate(0.5f,windowHeight*0.5f/windowWidth,0));
+        }
+    }
+
+    /**
+     * Cache object's vertices and edges by adding them to {@link World#geometry}. Vertices of
+     * {@link InstancedObject instances} are transformed directly from their mesh and their edges aren't copied at all.
+     * The object has to be the last one in {@link World#objects}. If the cache is invalidated, it gets rebuilt instead
+     * (including the object).
+     * @param obj the {@link Object3D 3D object} to be cached
+     */
+    private void addObjectToCache(Object3D obj) {
+        if (geometry == null) {
+            updateCache();
+            return;
+        }
+
+        int objectId = objects.size() - 1;
+        if (objectVertexStart.length < objects.size() + 1) {
+            int capacity = 2 * (objects.size() + 1);
+            objectVertexStart = Arrays.copyOf(objectVertexStart, capacity);
+            objectEdgeStart = Arrays.copyOf(objectEdgeStart, capacity);
+            objectEdgeSource = Arrays.copyOf(objectEdgeSource, capacity);
+            objectEdgeSourceStart = Arrays.copyOf(objectEdgeSourceStart, capacity);
+            objectVertexVersion = Arrays.copyOf(objectVertexVersion, capacity);
+            objectStructureVersion = Arrays.copyOf(objectStructureVersion, capacity);
+            instanceSpheres = Arrays.copyOf(instanceSpheres, 4 * capacity);
+        }
+        objectVertexStart[objectId] = geometry.getVertexCount();
+
+        int edgeCount;
+        if (obj instanceof InstancedObject) {
+            GeometryStore meshStore = getMeshStore(((InstancedObject) obj).getMesh());
+            geometry.ensureVertexCapacity(meshStore.getVertexCount());
+            for (int i = 0; i < meshStore.getVertexCount(); i++) geometry.addVertex(0, 0, 0);
+            objectEdgeSource[objectId] = meshStore;
+            objectEdgeSourceStart[objectId] = 0;
+            transformInstance(objectId, (InstancedObject) obj);
+            edgeCount = meshStore.getEdgeCount();
+        } else {
+            Vector[] objVerticesWorld = obj.calculateWorldVertices();
+            EdgeView objEdges = obj.getEdgeViewAll();
+
+            geometry.ensureVertexCapacity(objVerticesWorld.length);
+            for (Vector vertex : objVerticesWorld) geometry.addVertex(vertex.x, vertex.y, vertex.z);
+
+            objectEdgeSource[objectId] = geometry;
+            objectEdgeSourceStart[objectId] = geometry.getEdgeCount();
+            geometry.addEdges(objEdges);
+            edgeCount = objEdges.size();
+        }
+        geometryVersion++;
+
+        objectVertexVersion[objectId] = obj.getVertexCacheVersion();
+        objectStructureVersion[objectId] = obj.getStructureVersion();
+        objectVertexStart[objectId + 1] = geometry.getVertexCount();
+        objectEdgeStart[objectId + 1] = objectEdgeStart[objectId] + edgeCount;
+        if (bvh != null) bvh.invalidate();
+    }
+
+    /**
+     * Get the store with local vertices and edges of a mesh, creating it when the mesh is used for the first time.
+     * @param mesh mesh of an {@link InstancedObject instance}
+     * @return store with the vertices and edges of the mesh
+     */
+    private GeometryStore getMeshStore(Mesh mesh) {
+        GeometryStore store = meshStores.get(mesh);
+        if (store == null) {
+            store = new GeometryStore();
+            Vector[] vertices = mesh.getVertices();
+            store.ensureVertexCapacity(vertices.length);
+            for (Vector vertex : vertices) store.addVertex(vertex.x, vertex.y, vertex.z);
+            store.addEdges(mesh.getEdgeBuffer());
+            meshStores.put(mesh, store);
+        }
+        return store;
+    }
+
+    /**
+     * Transform the local vertices of an instance's mesh into its range of {@link World#geometry} and update its
+     * bounding sphere in {@link World#instanceSpheres}.
+     * @param objectId index of the instance in {@link World#objects}
+     * @param instance the instance
+     */
+    private void transformInstance(int objectId, InstancedObject instance) {
+        GeometryStore meshStore = objectEdgeSource[objectId];
+        float[] x = meshStore.getX(), y = meshStore.getY(), z = meshStore.getZ();
+        float[][] m = instance.getTransformMatrix();
+        int vertexStart = objectVertexStart[objectId];
+        for (int i = 0; i < meshStore.getVertexCount(); i++) {
+            geometry.setVertex(vertexStart + i,
+                    m[0][0]*x[i] + m[0][1]*y[i] + m[0][2]*z[i] + m[0][3],
+                    m[1][0]*x[i] + m[1][1]*y[i] + m[1][2]*z[i] + m[1][3],
+                    m[2][0]*x[i] + m[2][1]*y[i] + m[2][2]*z[i] + m[2][3]);
+        }
+
+        // the matrix is rotation times scale (plus translation), so the longest column is the largest scale
+        float[] sphere = instance.getMesh().getBoundingSphere();
+        float maxScaleSq = 0;
+        for (int column = 0; column < 3; column++)
+            maxScaleSq = Math.max(maxScaleSq, m[0][column]*m[0][column] + m[1][column]*m[1][column] + m[2][column]*m[2][column]);
+        instanceSpheres[4*objectId] = m[0][0]*sphere[0] + m[0][1]*sphere[1] + m[0][2]*sphere[2] + m[0][3];
+        instanceSpheres[4*objectId+1] = m[1][0]*sphere[0] + m[1][1]*sphere[1] + m[1][2]*sphere[2] + m[1][3];
+        instanceSpheres[4*objectId+2] = m[2][0]*sphere[0] + m[2][1]*sphere[1] + m[2][2]*sphere[2] + m[2][3];
+        instanceSpheres[4*objectId+3] = (sphere[3] < 0) ? -1 : sphere[3] * (float)Math.sqrt(maxScaleSq) * 1.0001f + 1e-6f;
+    }
+
+    /**
+     * Make sure {@link World#geometry} is up to date - rebuild it if it was invalidated, otherwise rewrite only the
+     * objects that changed since they were cached.
+     */
+    private void ensureCache() {
+        if (geometry == null) {
+            updateCache();
+            return;
+        }
+
+        for (int objectId = 0; objectId < objects.size(); objectId++) {
+            Object3D obj = objects.get(objectId);
+            if (obj.getVertexCacheVersion() != objectVertexVersion[objectId]) updateObjectInCache(objectId, obj);
+        }
+    }
+
+    /**
+     * Rewrite the vertices of a cached object in place. If its {@link Object3D#getStructureVersion() structure}
+     * changed, its edges get rewritten as well and, if the number of its vertices or edges changed, vertices and edges
+     * of the objects after it get moved.
+     * @param objectId index of the object in {@link World#objects}
+     * @param obj the object
+     */
+    private void updateObjectInCache(int objectId, Object3D obj) {
+        if (obj instanceof InstancedObject) transformInstance(objectId, (InstancedObject) obj);
+        else {
+            Vector[] objVerticesWorld = obj.calculateWorldVertices();
+            int vertexStart = objectVertexStart[objectId];
+
+            if (obj.getStructureVersion() != objectStructureVersion[objectId]) {
+                EdgeView objEdges = obj.getEdgeViewAll();
+                int oldEdgeCount = objectEdgeStart[objectId + 1] - objectEdgeStart[objectId];
+                int vertexDelta = objVerticesWorld.length - (objectVertexStart[objectId + 1] - vertexStart);
+                int edgeDelta = objEdges.size() - oldEdgeCount;
+                int objectCount = objects.size();
+
+                if (vertexDelta != 0) {
+                    geometry.shiftVertices(objectVertexStart[objectId + 1], vertexDelta);
+                    for (int i = objectId + 1; i <= objectCount; i++) objectVertexStart[i] += vertexDelta;
+                }
+                if (edgeDelta != 0) {
+                    geometry.shiftEdges(objectEdgeSourceStart[objectId] + oldEdgeCount, edgeDelta);
+                    for (int i = objectId + 1; i < objectCount; i++)
+                        if (objectEdgeSource[i] == geometry) objectEdgeSourceStart[i] += edgeDelta;
+                    for (int i = objectId + 1; i <= objectCount; i++) objectEdgeStart[i] += edgeDelta;
+                }
+
+                geometry.setEdges(objectEdgeSourceStart[objectId], objEdges);
+                if (bvh != null) bvh.invalidate();
+            }
+
+            for (int i = 0; i < objVerticesWorld.length; i++) {
+                Vector vertex = objVerticesWorld[i];
+                geometry.setVertex(vertexStart + i, vertex.x, vertex.y, vertex.z);
+            }
+        }
+        if (bvh != null && bvh.isBuilt()) bvh.markEdgesChanged(objectEdgeStart[objectId], objectEdgeStart[objectId + 1]);
+        objectVertexVersion[objectId] = obj.getVertexCacheVersion();
+        objectStructureVersion[objectId] = obj.getStructureVersion();
+        geometryVersion++;
+    }
+
+    /**
+     * Discard and rebuild {@link World#geometry} cache.
+     */
+    private void updateCache() {
+        geometry = new GeometryStore();
+        if (bvh != null) bvh.invalidate();
+
+        ArrayList<Object3D> toAdd = objects;
+        objects = new ArrayList<>(toAdd.size());
+        for (Object3D obj : toAdd) {
+            objects.add(obj);
+            addObjectToCache(obj);
+        }
+    }
+
+    /**
+     * Invalidate (discard) {@link World#geometry} cache. Function doesn't rebuild the cache, because cache might be
+     * invalidated multiple times per frame.
+     * <br>
+     * Changes of objects (their position, rotation, scale or vertices, as long as {@link Object3D#invalidateVertexCache}
+     * is called for changed vertices) are detected automatically and only the changed objects get rewritten in the
+     * cache, so this function only needs to be called to force a full rebuild.
+     */
+    public void invalidateCache() {
+        geometry = null;
+        geometryVersion++;
+    }
+
+    /**
+     * @return the number of vertices in the scene
+     */
+    public int getVertexCount() {
+        ensureCache();
+        return geometry.getVertexCount();
+    }
+
+    /**
+     * @return the number of edges in the scene
+     */
+    public int getEdgeCount() {
+        ensureCache();
+        return getCachedEdgeCount();
+    }
+
+    /**
+     * @return the number of edges of all objects in the cache (including edges shared by instances)
+     */
+    private int getCachedEdgeCount() {
+        return objectEdgeStart[objects.size()];
+    }
+
+    /**
+     * Get the number of {@link DrawOrder#SORT_EDGES} frames that reused the edge order from the last frame instead of
+     * sorting all edges. That happens when the camera position and the scene didn't change (no sorting at all) or when
+     * they changed only a little (order from the last frame gets fixed up using insertion sort).
+     * @return number of frames that took the incremental sorting path
+     */
+    public long getIncrementalSortFrames() {
+        return incrementalSortFrames;
+    }
+
+    /**
+     * Draw one frame of the scene using the {@link World#renderer}. Tasks scheduled using {@link World#invokeLater} are
+     * run first.
+     * @param camera position and rotation of the camera in the scene
+     * @param edgeLimit draw only a limited number of edges (-1 for all) - the first edgeLimit edges in the draw order
+     *                  are drawn, counting also the ones that end up not drawn because they are behind the camera.
+     *                  Edges of objects replaced by their silhouette or a level of detail aren't counted in any order,
+     *                  the simplified edges drawn instead of them are. {@link DrawOrder#BVH} doesn't visit (and count)
+     *                  edges in nodes outside of the view frustum, so its limit can cover more visible edges.
+     * @param drawOrder {@link DrawOrder Order} in which to draw edges - by
+     * {@link DrawOrder#SORT_OBJECTS sorting the objects}, by {@link DrawOrder#SORT_EDGES sorting the edges} or by
+     * {@link DrawOrder#BVH traversing a hierarchy over the edges}.
+     */
+    public void draw(final Camera camera, int edgeLimit, DrawOrder drawOrder) {
+        for (Runnable task = pendingTasks.poll(); task != null; task = pendingTasks.poll()) task.run();
+        ensureCache();
+
+        switch (drawOrder) {
+            case SORT_OBJECTS: drawObjects(camera, edgeLimit); break;
+            case SORT_EDGES: drawEdges(camera, edgeLimit); break;
+            case BVH: drawBvh(camera, edgeLimit); break;
+        }
+        flushLines();
     }
 
-    //const
     /**
-     * "d" parameter for converting to perspective space.
+     * Draw one frame of the scene using the {@link World#renderer} where draw order is obtained by
+     * {@link DrawOrder#SORT_OBJECTS sorting the objects}.
+     * @param camera position and rotation of the camera in the scene
+     * @param edgeLimit draw only a limited number of edges (-1 for all)
      */
-    private static final float d = 1;
+    private void drawObjects(final Camera camera, int edgeLimit) {
+        prepareProjection(camera);
+        float[] cameraPosition = camera.getPosition();
+        selectLevels(cameraPosition);
+        cullObjects();
+        projectVisible();
+        sortObjects(cameraPosition);
+
+        for (int i = 0; i < objects.size(); i++) {
+            int objectId = objectOrder[i];
+            if (isSimplified(objectId)) {
+                edgeLimit = drawSimplifiedObject(objectId, cameraPosition, edgeLimit);
+                if (edgeLimit == 0) return;
+                continue;
+            }
+            for (int range = objectEdgeRangeStart[objectId]; range < objectEdgeRangeStart[objectId + 1]; range += 2) {
+                for (int edge = edgeRanges[range]; edge < edgeRanges[range + 1]; edge++) {
+                    if (edgeLimit-- == 0) return;
+                    drawEdge(objectId, edge, cameraPosition);
+                }
+            }
+        }
+    }
 
     /**
-     * Matrix for converting from camera space to perspective space.
+     * Sort {@link World#objectOrder} by the distance of the objects from the camera, furthest first.
+     * @param cameraPosition position of the camera
      */
-    private static final float[][] toPerspectiveMatrix = new float[][] {{1,0,0,0}, {0,1,0,0}, {0,0,1,0}, {0,0,1/d,0}};
+    private void sortObjects(float[] cameraPosition) {
+        int objectCount = objects.size();
+        if (objectOrder.length != objectCount) {
+            objectOrder = new int[objectCount];
+            objectDistance = new float[objectCount];
+            for (int i = 0; i < objectCount; i++) objectOrder[i] = i;
+        }
+
+        for (int i = 0; i < objectCount; i++) {
+            Object3D obj = objects.get(objectOrder[i]);
+            objectDistance[i] = distSq(cameraPosition, obj.getPosition(0), obj.getPosition(1), obj.getPosition(2));
+        }
+        // insertion sort - there are only a few objects and the order from the last frame is usually still correct
+        for (int i = 1; i < objectCount; i++) {
+            int objectId = objectOrder[i];
+            float distance = objectDistance[i];
+            int j = i - 1;
+            for (; j >= 0 && objectDistance[j] < distance; j--) {
+                objectOrder[j + 1] = objectOrder[j];
+                objectDistance[j + 1] = objectDistance[j];
+            }
+            objectOrder[j + 1] = objectId;
+            objectDistance[j + 1] = distance;
+        }
+    }
 
     /**
-     * Matrix for converting from camera space to perspective space. Needed to correctly (not) display objects/edges
-     * behind the camera.
+     * Choose the {@link SilhouetteEdges silhouette} or the {@link EdgeLevels level of detail} of each object for the
+     * current frame and store them in {@link World#objectSilhouette} and {@link World#objectLevel}.
+     * {@link World#prepareProjection} has to be called first.
+     * @param cameraPosition position of the camera
      */
-    private static final float[][] toPerspectiveNegativeMatrix = new float[][] {{1,0,0,0}, {0,1,0,0}, {0,0,1,0}, {0,0,-1/d,0}};
+    private void selectLevels(float[] cameraPosition) {
+        int objectCount = objects.size();
+        if (objectLevel.length < objectCount) {
+            objectLevel = new EdgeLevels.Level[2 * objectCount];
+            objectSilhouette = new SilhouetteEdges[2 * objectCount];
+        }
+        Arrays.fill(objectLevel, 0, objectCount, null);
+        Arrays.fill(objectSilhouette, 0, objectCount, null);
+        simplifiedObjectCount = 0;
+
+        // window pixels per world unit at distance 1 from the camera
+        float pixelsPerUnit = toScreenMatrix[0][0] * d;
+        for (int objectId = 0; objectId < objectCount; objectId++) {
+            Object3D obj = objects.get(objectId);
+            if (obj instanceof InstancedObject || obj.getVertices().length != obj.getVertexCountAll()) continue;
+            objectSilhouette[objectId] = obj.getSilhouetteEdges();
+            if (objectSilhouette[objectId] != null) simplifiedObjectCount++;
+            if (objectSilhouette[objectId] != null || !levelOfDetail) continue;
+
+            EdgeLevels edgeLevels = obj.getEdgeLevels();
+            if (edgeLevels == null) continue;
+            EdgeLevels.Level[] levels = edgeLevels.getLevels();
+            if (levels == null || levels.length == 0) continue;
+
+            float[] sphere = obj.getBoundingSphere();
+            float distance = (float)Math.sqrt(distSq(cameraPosition, sphere[0], sphere[1], sphere[2])) - sphere[3];
+            if (sphere[3] < 0 || distance <= nearPlane) continue;
+            float pixels = 2 * sphere[3] * pixelsPerUnit / distance;
+
+            // levels go from the finest to the coarsest, use the coarsest one that is still detailed enough
+            for (int i = levels.length - 1; i >= 0; i--) {
+                if (levels[i].getResolution() * LOD_PIXELS_PER_CELL >= pixels) {
+                    objectLevel[objectId] = levels[i];
+                    simplifiedObjectCount++;
+                    break;
+                }
+            }
+        }
+    }
 
-    //var
     /**
-     * List of 3D objects to render.
+     * @param objectId index of the object in {@link World#objects}
+     * @return true if the object is drawn using its silhouette or a level of detail in the current frame instead of
+     * its cached edges
      */
-    private ArrayList<Object3D> objects = new ArrayList<>();
+    private boolean isSimplified(int objectId) {
+        return objectLevel[objectId] != null || objectSilhouette[objectId] != null;
+    }
 
     /**
-     * Cached list of vertices used to draw in DrawOrder.SORT_EDGES.
+     * Collect the edges of the objects using a {@link SilhouetteEdges silhouette} or a
+     * {@link EdgeLevels level of detail} in the current frame into {@link World#simplifiedEdgeObject} and sort them by
+     * the distance of their midpoints from the camera into {@link World#simplifiedOrder}, so they can be merged with
+     * the other edges in the draw order.
+     * @param cameraPosition position of the camera
      */
-    private ArrayList<Vector> vertices = null;
+    private void collectSimplified(float[] cameraPosition) {
+        simplifiedEdgeCount = 0;
+        float[] x = geometry.getX(), y = geometry.getY(), z = geometry.getZ();
+        for (int objectId = 0; objectId < objects.size(); objectId++) {
+            if (!isSimplified(objectId)) continue;
+            EdgeBuffer edges = prepareSimplifiedObject(objectId, cameraPosition);
+            if (edges == null) continue;
+
+            int count = simplifiedEdgeCount + edges.size();
+            if (simplifiedEdgeObject.length < count) {
+                int length = Math.max(count, 2 * simplifiedEdgeObject.length);
+                simplifiedEdgeObject = Arrays.copyOf(simplifiedEdgeObject, length);
+                simplifiedEdgeOffset = Arrays.copyOf(simplifiedEdgeOffset, length);
+                simplifiedKeys = new int[length];
+                simplifiedOrder = new int[length];
+            }
+
+            int[] data = edges.getData();
+            int vertexStart = objectVertexStart[objectId];
+            for (int i = 0, offset = 0; i < edges.size(); i++, offset += EdgeBuffer.STRIDE) {
+                int from = vertexStart + data[offset + EdgeBuffer.FROM], to = vertexStart + data[offset + EdgeBuffer.TO];
+                float distance = distSq(cameraPosition, (x[from] + x[to])/2, (y[from] + y[to])/2, (z[from] + z[to])/2);
+                simplifiedEdgeObject[simplifiedEdgeCount] = objectId;
+                simplifiedEdgeOffset[simplifiedEdgeCount] = offset;
+                simplifiedKeys[simplifiedEdgeCount] = RadixSort.toDescendingKey(distance);
+                simplifiedOrder[simplifiedEdgeCount] = simplifiedEdgeCount;
+                simplifiedEdgeCount++;
+            }
+        }
+        simplifiedSorter.sort(simplifiedKeys, simplifiedOrder, simplifiedEdgeCount, getChunkCount(simplifiedEdgeCount));
+    }
 
     /**
-     * Cached list of edges used to draw in DrawOrder.SORT_EDGES. Cache is useful, otherwise we would need to copy edges
-     * and vertices from each object each frame and update edges with new positions of their vertices.
+     * Draw the collected simplified edges from position next of {@link World#simplifiedOrder} while their depth keys
+     * are at most maxKey (their midpoints are at least as far from the camera as the depth represented by maxKey).
+     * @param next position of the first simplified edge not drawn yet
+     * @param maxKey depth key compared as an unsigned int, -1 to draw all remaining edges
+     * @param cameraPosition position of the camera
+     * @param edgeLimit draw only a limited number of edges (-1 for all)
+     * @return position of the first simplified edge not drawn, or -1 if the edge limit was reached
      */
-    private ArrayList<int[]> edges = null;
+    private int drawSimplifiedUpTo(int next, int maxKey, float[] cameraPosition, int edgeLimit) {
+        int signedMaxKey = maxKey ^ Integer.MIN_VALUE;
+        for (; next < simplifiedEdgeCount && (simplifiedKeys[next] ^ Integer.MIN_VALUE) <= signedMaxKey; next++) {
+            if (edgeLimit-- == 0) return -1;
+            int edge = simplifiedOrder[next], objectId = simplifiedEdgeObject[edge];
+            drawSimplifiedEdge(objectId, getSimplifiedEdges(objectId), simplifiedEdgeOffset[edge], cameraPosition);
+        }
+        return next;
+    }
 
     /**
-     * Renderer used to render the scene.
+     * @param objectId index of a simplified object in {@link World#objects}
+     * @return edges of the silhouette or the level of detail of the object used in the current frame
      */
-    private Renderer renderer;
+    private EdgeBuffer getSimplifiedEdges(int objectId) {
+        SilhouetteEdges silhouette = objectSilhouette[objectId];
+        return (silhouette != null) ? silhouette.getEdges() : objectLevel[objectId].getEdges();
+    }
 
     /**
-     * Cached values for output's width/height. They are automatically updated every frame if necessary.
+     * Draw an object using its {@link World#objectSilhouette silhouette} or its
+     * {@link World#objectLevel level of detail}, see {@link World#prepareSimplifiedObject}.
+     * @param objectId index of the object in {@link World#objects}
+     * @param cameraPosition position of the camera
+     * @param edgeLimit draw only a limited number of edges (-1 for all)
+     * @return remaining edge limit
      */
-    private int windowWidth = 0, windowHeight = 0;
+    private int drawSimplifiedObject(int objectId, float[] cameraPosition, int edgeLimit) {
+        EdgeBuffer edges = prepareSimplifiedObject(objectId, cameraPosition);
+        if (edges == null) return edgeLimit;
+
+        for (int i = 0, offset = 0; i < edges.size(); i++, offset += EdgeBuffer.STRIDE) {
+            if (edgeLimit == 0) return 0;
+            edgeLimit--;
+            drawSimplifiedEdge(objectId, edges, offset, cameraPosition);
+        }
+        return edgeLimit;
+    }
 
     /**
-     * Matrix for converting from perspective space to window space.
+     * Project the vertices used by the {@link World#objectSilhouette silhouette} or the
+     * {@link World#objectLevel level of detail} of an object. Silhouette edges are found for the current camera
+     * position first.
+     * @param objectId index of the object in {@link World#objects}
+     * @param cameraPosition position of the camera
+     * @return edges to draw, null if the object is outside of the view frustum
      */
-    private float[][] toScreenMatrix;
+    private EdgeBuffer prepareSimplifiedObject(int objectId, float[] cameraPosition) {
+        Object3D obj = objects.get(objectId);
+        if (frustumCulling) {
+            float[] sphere = obj.getBoundingSphere();
+            if (frustum.classify(sphere[0], sphere[1], sphere[2], sphere[3]) == ViewFrustum.OUTSIDE) return null;
+        }
+
+        int[] vertices;
+        int vertexCount;
+        SilhouetteEdges silhouette = objectSilhouette[objectId];
+        if (silhouette != null) {
+            toLocalSpace(obj, cameraPosition, silhouetteCamera);
+            float[] camera = silhouetteCamera;
+            silhouette.update(camera[0], camera[1], camera[2], getChunkCount(silhouette.getFaceCount()));
+            vertices = silhouette.getVertices();
+            vertexCount = silhouette.getVertexCount();
+        } else {
+            vertices = objectLevel[objectId].getVertices();
+            vertexCount = vertices.length;
+        }
+
+        int vertexStart = objectVertexStart[objectId];
+        float[] x = geometry.getX(), y = geometry.getY(), z = geometry.getZ();
+        float[][] m = projectionMatrix;
+        float m00 = m[0][0], m01 = m[0][1], m02 = m[0][2], m03 = m[0][3];
+        float m10 = m[1][0], m11 = m[1][1], m12 = m[1][2], m13 = m[1][3];
+        float m30 = m[3][0], m31 = m[3][1], m32 = m[3][2], m33 = m[3][3];
+        for (int v = 0; v < vertexCount; v++) {
+            int i = vertexStart + vertices[v];
+            float vx = x[i], vy = y[i], vz = z[i];
+            float w = m30*vx + m31*vy + m32*vz + m33;
+            screenW[i] = w;
+            if (w >= nearW) {
+                float invW = 1 / w;
+                screenX[i] = (m00*vx + m01*vy + m02*vz + m03) * invW;
+                screenY[i] = (m10*vx + m11*vy + m12*vz + m13) * invW;
+            }
+        }
+        return getSimplifiedEdges(objectId);
+    }
 
     /**
-     * Constructor for the World object.
-     * @param renderer renderer to use to render the scene
+     * Draw a single edge of a silhouette or a level of detail whose vertices were projected using
+     * {@link World#prepareSimplifiedObject}.
+     * @param objectId index of the object in {@link World#objects}
+     * @param edges edges of the silhouette or the level of detail
+     * @param offset offset of the edge in the data of edges
+     * @param cameraPosition position of the camera
      */
-    public World(Renderer renderer) {
-        this.renderer = renderer;
-        setToScreenMatrix();
+    private void drawSimplifiedEdge(int objectId, EdgeBuffer edges, int offset, float[] cameraPosition) {
+        int[] data = edges.getData();
+        int vertexStart = objectVertexStart[objectId];
+        int from = vertexStart + data[offset + EdgeBuffer.FROM], to = vertexStart + data[offset + EdgeBuffer.TO];
+        boolean fromInFront = screenW[from] >= nearW, toInFront = screenW[to] >= nearW;
+        byte state = (fromInFront && toInFront) ? EDGE_IN_FRONT : (fromInFront || toInFront) ? EDGE_CROSSING : EDGE_HIDDEN;
+        drawVertices(state, from, to, data[offset + EdgeBuffer.COLOR], data[offset + EdgeBuffer.WEIGHT], cameraPosition);
     }
 
+    /**
+     * Transform a point from world space to local space of an object without nested objects, same as multiplying it
+     * by {@link Object3D#getTransformMatrixInv()}, but without allocating.
+     * @param obj object added directly to the world
+     * @param point point in world space
+     * @param result array for the point in local space of the object
+     */
+    private static void toLocalSpace(Object3D obj, float[] point, float[] result) {
+        float x = point[0] - obj.getPosition(0), y = point[1] - obj.getPosition(1), z = point[2] - obj.getPosition(2);
+        float cos = (float)Math.cos(obj.getRotation(2)), sin = (float)Math.sin(obj.getRotation(2));
+        float t = cos*x + sin*y;
+        y = cos*y - sin*x;
+        x = t;
+        cos = (float)Math.cos(obj.getRotation(1));
+        sin = (float)Math.sin(obj.getRotation(1));
+        t = cos*x - sin*z;
+        z = sin*x + cos*z;
+        x = t;
+        cos = (float)Math.cos(obj.getRotation(0));
+        sin = (float)Math.sin(obj.getRotation(0));
+        t = cos*y + sin*z;
+        z = cos*z - sin*y;
+        y = t;
+        result[0] = x / obj.getScale(0);
+        result[1] = y / obj.getScale(1);
+        result[2] = z / obj.getScale(2);
+    }
 
     /**
-     * Add {@link Object3D 3D object} to the scene.
-     * @param obj the {@link Object3D 3D object} to be added
+     * Draw one frame of the scene using the {@link World#renderer} where draw order is obtained by
+     * {@link DrawOrder#SORT_EDGES sorting the edges}.
+     * @param camera position and rotation of the camera in the scene
+     * @param edgeLimit draw only a limited number of edges (-1 for all)
      */
-    public void addObject(Object3D obj) {
-        objects.add(obj);
-        addObjectToCache(obj);
+    private void drawEdges (final Camera camera, int edgeLimit) {
+        prepareProjection(camera);
+        float[] cameraPosition = camera.getPosition();
+        selectLevels(cameraPosition);
+        cullObjects();
+        projectVisible();
+        collectSimplified(cameraPosition);
+
+        int edgeCount = getCachedEdgeCount();
+        if (edgeOrder.length != edgeCount) {
+            edgeOrder = new int[edgeCount];
+            edgeKeys = new int[edgeCount];
+            edgeDepthKeys = new int[edgeCount];
+            for (int i = 0; i < edgeCount; i++) edgeOrder[i] = i;
+            sortedGeometryVersion = -1;
+        }
+
+        boolean orderValid = sortedGeometryVersion != -1;
+        if (orderValid && sortedGeometryVersion == geometryVersion && sortedCameraX == cameraPosition[0]
+                && sortedCameraY == cameraPosition[1] && sortedCameraZ == cameraPosition[2]) {
+            incrementalSortFrames++;
+        } else {
+            sortCameraPosition = cameraPosition;
+            runRange(computeEdgeDepthsAction, 0, edgeCount);
+            runRange(computeDepthKeysAction, 0, edgeCount);
+            if (orderValid && fixUpEdgeOrder(edgeCount)) incrementalSortFrames++;
+            else edgeSorter.sort(edgeKeys, edgeOrder, edgeCount, getChunkCount(edgeCount));
+
+            sortedGeometryVersion = geometryVersion;
+            sortedCameraX = cameraPosition[0];
+            sortedCameraY = cameraPosition[1];
+            sortedCameraZ = cameraPosition[2];
+        }
+
+        // simplified edges are merged into the order, each is drawn right before the first nearer edge
+        int nextSimplified = 0;
+        for (int i = 0; i < edgeCount; i++) {
+            if (nextSimplified < simplifiedEdgeCount) {
+                int next = drawSimplifiedUpTo(nextSimplified, edgeKeys[i], cameraPosition, edgeLimit);
+                if (next < 0) return;
+                edgeLimit -= next - nextSimplified;
+                nextSimplified = next;
+            }
+            int edge = edgeOrder[i];
+            if (edgeState[edge] == EDGE_REPLACED) continue;
+            if (edgeLimit-- == 0) return;
+            if (edgeState[edge] != EDGE_HIDDEN) drawEdge(findObjectByEdge(edge), edge, cameraPosition);
+        }
+        drawSimplifiedUpTo(nextSimplified, -1, cameraPosition, edgeLimit);
     }
 
     /**
-     * Correctly set the toScreen matrix when the output and cached resolution (and by extention the resolution used for
-     * the toScreen matrix)  don't match.
+     * Draw one frame of the scene using the {@link World#renderer} where draw order is obtained by
+     * {@link DrawOrder#BVH traversing the hierarchy over the edges}.
+     * @param camera position and rotation of the camera in the scene
+     * @param edgeLimit draw only a limited number of edges (-1 for all)
      */
-    private void setToScreenMatrix() {
-        if (renderer.getWidth() != windowWidth || renderer.getHeight() != windowHeight) {
-            windowWidth = renderer.getWidth();
-            windowHeight = renderer.getHeight();
+    private void drawBvh(final Camera camera, int edgeLimit) {
+        prepareProjection(camera);
+        updateBvh();
 
-            if (windowHeight < windowWidth) toScreenMatrix = Matrix3D.multiply(Matrix3D.getScale(windowHeight,windowHeight,1), Matrix3D.getTranslate(windowWidth*0.5f/windowHeight,0.5f,0));
-            else toScreenMatrix = Matrix3D.multiply(Matrix3D.getScale(windowWidth,windowWidth,1), Matrix3D.getTranslate(0.5f,windowHeight*0.5f/windowWidth,0));
+        float[] cameraPosition = camera.getPosition();
+        selectLevels(cameraPosition);
+        collectSimplified(cameraPosition);
+        collectBvhLeaves(cameraPosition);
+        runRange(projectBvhLeavesAction, 0, bvhLeafCount, bvhLeafEdgeCount);
+
+        int[] edges = bvh.getEdges();
+        float[] bounds = bvh.getBounds();
+        int nextSimplified = 0;
+        for (int i = 0; i < bvhLeafCount; i++) {
+            int leaf = bvhLeafOrder[i];
+            // simplified edges are drawn before the first leaf whose center is nearer than their midpoint
+            if (nextSimplified < simplifiedEdgeCount) {
+                int leafKey = RadixSort.toDescendingKey(boxCenterDistSq(cameraPosition, bounds, 6 * leaf));
+                int next = drawSimplifiedUpTo(nextSimplified, leafKey, cameraPosition, edgeLimit);
+                if (next < 0) return;
+                edgeLimit -= next - nextSimplified;
+                nextSimplified = next;
+            }
+            for (int position = bvh.getStart(leaf); position < bvh.getEnd(leaf); position++) {
+                int edge = edges[position];
+                if (edgeState[edge] == EDGE_REPLACED) continue;
+                if (edgeLimit-- == 0) return;
+                if (edgeState[edge] != EDGE_HIDDEN) drawEdge(findObjectByEdge(edge), edge, cameraPosition);
+            }
         }
+        drawSimplifiedUpTo(nextSimplified, -1, cameraPosition, edgeLimit);
     }
 
     /**
-     * Cache object's vertices and edges by adding them to {@link World#vertices} and {@link World#edges}.
-     * @param obj the {@link Object3D 3D object} to be cached
+     * Make sure {@link World#bvh} matches {@link World#geometry} - build it if the edges changed, otherwise refit the
+     * nodes containing edges whose vertices moved.
      */
-    private void addObjectToCache(Object3D obj) {
-        if (vertices == null || edges == null) updateCache();
+    private void updateBvh() {
+        if (bvh == null) bvh = new EdgeBVH();
+        if (bvh.isBuilt() && bvhGeometryVersion == geometryVersion) return;
 
-        Vector[] objVerticesWorld = obj.calculateWorldVertices();
-        int[][] objEdges = obj.getEdgesAll();
+        if (bvh.isBuilt()) bvh.refit(geometry.getX(), geometry.getY(), geometry.getZ());
+        else {
+            int edgeCount = getCachedEdgeCount();
+            if (bvhEdgeFrom.length < edgeCount) {
+                bvhEdgeFrom = new int[edgeCount];
+                bvhEdgeTo = new int[edgeCount];
+            }
+            runRange(resolveEdgesAction, 0, edgeCount);
+            bvh.build(edgeCount, bvhEdgeFrom, bvhEdgeTo, geometry.getX(), geometry.getY(), geometry.getZ(),
+                    parallel && edgeCount >= parallelThreshold);
+        }
+        bvhGeometryVersion = geometryVersion;
+    }
 
-        int deltaVertices = vertices.size();
+    /**
+     * Store the indices of the vertices of the edges [start, end) in {@link World#geometry} into
+     * {@link World#bvhEdgeFrom} and {@link World#bvhEdgeTo}.
+     * @param start index of the first edge to process
+     * @param end index after the last edge to process
+     */
+    private void resolveEdges(int start, int end) {
+        for (int objectId = findObjectByEdge(start); start < end; objectId++) {
+            int objectEnd = Math.min(end, objectEdgeStart[objectId + 1]);
+            GeometryStore source = objectEdgeSource[objectId];
+            int[] from = source.getFrom(), to = source.getTo();
+            int sourceOffset = objectEdgeSourceStart[objectId] - objectEdgeStart[objectId], vertexStart = objectVertexStart[objectId];
 
-        vertices.addAll(Arrays.asList(objVerticesWorld));
-        for (int i = 0; i < objEdges.length; i++) {
-            int[] newEdge = new int[objEdges[i].length];
-            for (int j = 2; j < newEdge.length; j++)
-                newEdge[j] = objEdges[i][j];
-            newEdge[0] = objEdges[i][0] + deltaVertices;
-            newEdge[1] = objEdges[i][1] + deltaVertices;
-            edges.add(newEdge);
+            for (int i = start; i < objectEnd; i++) {
+                bvhEdgeFrom[i] = from[i + sourceOffset] + vertexStart;
+                bvhEdgeTo[i] = to[i + sourceOffset] + vertexStart;
+            }
+            start = objectEnd;
         }
     }
 
     /**
-     * Discard and rebuild {@link World#vertices} and {@link World#edges} caches.
+     * Traverse {@link World#bvh} from the furthest node to the nearest and store the leaves that pass frustum culling
+     * into {@link World#bvhLeafOrder}. Children of each node are ordered by the distance of the centers of their
+     * bounding boxes from the camera.
+     * @param cameraPosition position of the camera
      */
-    private void updateCache() {
-        vertices = new ArrayList<>();
-        edges = new ArrayList<>();
+    private void collectBvhLeaves(float[] cameraPosition) {
+        bvhLeafCount = 0;
+        bvhLeafEdgeCount = 0;
+        if (bvh.getNodeCount() == 0) return;
+        if (bvhLeafOrder.length < bvh.getNodeCount()) bvhLeafOrder = new int[bvh.getNodeCount()];
 
-        for (Object3D obj : objects) {
-            addObjectToCache(obj);
+        float[] bounds = bvh.getBounds();
+        int stackSize = 0;
+        bvhStack[stackSize++] = frustumCulling ? 0 : -1;
+        while (stackSize > 0) {
+            int entry = bvhStack[--stackSize];
+            boolean inside = entry < 0;
+            int node = inside ? -entry - 1 : entry;
+            if (!inside) {
+                int result = frustum.classifyBox(bounds, 6 * node);
+                if (result == ViewFrustum.OUTSIDE) continue;
+                inside = result == ViewFrustum.INSIDE;
+            }
+
+            if (bvh.isLeaf(node)) {
+                bvhLeafOrder[bvhLeafCount++] = node;
+                bvhLeafEdgeCount += bvh.getEnd(node) - bvh.getStart(node);
+                continue;
+            }
+
+            // the nearer child is pushed first, so the further one gets drawn first
+            int near = bvh.getLeft(node), far = near + 1;
+            if (boxCenterDistSq(cameraPosition, bounds, 6 * near) > boxCenterDistSq(cameraPosition, bounds, 6 * far)) {
+                far = near;
+                near = far + 1;
+            }
+            if (stackSize + 2 > bvhStack.length) bvhStack = Arrays.copyOf(bvhStack, 2 * bvhStack.length);
+            bvhStack[stackSize++] = inside ? -near - 1 : near;
+            bvhStack[stackSize++] = inside ? -far - 1 : far;
         }
     }
 
     /**
-     * Invalidate (discard) {@link World#vertices} and {@link World#edges} caches. Function doesn't rebuild the cache,
-     * because cache might be invalidated multiple times per frame.
+     * @param point point in 3D space (float array with length 3)
+     * @param bounds array containing the box as [minX, minY, minZ, maxX, maxY, maxZ]
+     * @param offset index of minX in bounds
+     * @return squared distance of the point from the center of the box
      */
-    public void invalidateCache() {
-        vertices = null;
-        edges = null;
+    private static float boxCenterDistSq(float[] point, float[] bounds, int offset) {
+        return distSq(point, (bounds[offset] + bounds[offset + 3]) / 2, (bounds[offset + 1] + bounds[offset + 4]) / 2,
+                (bounds[offset + 2] + bounds[offset + 5]) / 2);
     }
 
     /**
-     * @return the number of vertices in the scene
+     * Project the vertices of the edges in the leaves [start, end) of {@link World#bvhLeafOrder} and test the edges
+     * against the near plane (same as {@link World#projectVertices} and {@link World#testEdgeVisibility}). Vertices
+     * shared by edges in different leaves may be projected more than once, always with the same result. Edges of
+     * simplified objects are marked as {@link World#EDGE_REPLACED} without projecting their vertices.
+     * @param start index of the first leaf to process
+     * @param end index after the last leaf to process
      */
-    public int getVertexCount() {
-        return vertices.size();
+    private void projectBvhLeaves(int start, int end) {
+        float[] x = geometry.getX(), y = geometry.getY(), z = geometry.getZ();
+        int[] edges = bvh.getEdges(), from = bvh.getFrom(), to = bvh.getTo();
+        float[][] m = projectionMatrix;
+        float m00 = m[0][0], m01 = m[0][1], m02 = m[0][2], m03 = m[0][3];
+        float m10 = m[1][0], m11 = m[1][1], m12 = m[1][2], m13 = m[1][3];
+        float m30 = m[3][0], m31 = m[3][1], m32 = m[3][2], m33 = m[3][3];
+        float near = nearW;
+        boolean checkReplaced = simplifiedObjectCount > 0;
+        // edges of the object found last - edges in a leaf are close to each other, so they mostly share an object
+        int objectStart = 0, objectEnd = 0;
+        boolean objectReplaced = false;
+
+        for (int leaf = start; leaf < end; leaf++) {
+            int node = bvhLeafOrder[leaf];
+            for (int position = bvh.getStart(node); position < bvh.getEnd(node); position++) {
+                int edge = edges[position];
+                if (checkReplaced) {
+                    if (edge < objectStart || edge >= objectEnd) {
+                        int objectId = findObjectByEdge(edge);
+                        objectStart = objectEdgeStart[objectId];
+                        objectEnd = objectEdgeStart[objectId + 1];
+                        objectReplaced = isSimplified(objectId);
+                    }
+                    if (objectReplaced) {
+                        edgeState[edge] = EDGE_REPLACED;
+                        continue;
+                    }
+                }
+
+                boolean fromInFront = false, toInFront = false;
+                for (int endpoint = 0; endpoint < 2; endpoint++) {
+                    int i = (endpoint == 0) ? from[position] : to[position];
+                    float vx = x[i], vy = y[i], vz = z[i];
+                    float w = m30*vx + m31*vy + m32*vz + m33;
+                    screenW[i] = w;
+                    if (w >= near) {
+                        float invW = 1 / w;
+                        screenX[i] = (m00*vx + m01*vy + m02*vz + m03) * invW;
+                        screenY[i] = (m10*vx + m11*vy + m12*vz + m13) * invW;
+                        if (endpoint == 0) fromInFront = true;
+                        else toInFront = true;
+                    }
+                }
+
+                if (fromInFront && toInFront) edgeState[edge] = EDGE_IN_FRONT;
+                else if (fromInFront || toInFront) edgeState[edge] = EDGE_CROSSING;
+                else edgeState[edge] = EDGE_HIDDEN;
+            }
+        }
     }
 
     /**
-     * @return the number of edges in the scene
+     * Find the object with an edge closest to the origin of a ray among the edges within tolerance from the ray, for
+     * example for picking objects under the mouse cursor. Uses the same hierarchy over the edges as
+     * {@link DrawOrder#BVH}.
+     * @param origin origin of the ray in world space [x, y, z]
+     * @param direction direction of the ray in world space [x, y, z], doesn't have to be normalized
+     * @param tolerance maximum distance of the edge from the ray in world space
+     * @return the object (one of the objects added to the world, not a nested one) containing the edge, null if no
+     * edge is close enough to the ray
      */
-    public int getEdgeCount() {
-        return edges.size();
+    public Object3D pickObject(float[] origin, float[] direction, float tolerance) {
+        ensureCache();
+        updateBvh();
+        int edge = bvh.raycast(origin, direction, tolerance, geometry.getX(), geometry.getY(), geometry.getZ());
+        return (edge < 0) ? null : objects.get(findObjectByEdge(edge));
     }
 
     /**
-     * Draw one frame of the scene using the {@link World#renderer}.
+     * Calculate {@link World#projectionMatrix} for the camera and make sure the projection scratch buffers are large
+     * enough. Allocates only when the window is resized or the scene grows.
      * @param camera position and rotation of the camera in the scene
-     * @param edgeLimit draw only a limited number of edges (-1 for all)
-     * @param drawOrder {@link DrawOrder Order} in which to draw edges - by
-     * {@link DrawOrder#SORT_OBJECTS sorting the objects} or by {@link DrawOrder#SORT_EDGES sorting the edges}.
      */
-    public void draw(final Camera camera, int edgeLimit, DrawOrder drawOrder) {
-        if (vertices == null || edges == null) updateCache();
+    private void prepareProjection(Camera camera) {
+        setToScreenMatrix();
+        camera.calculateToCameraMatrix(toCameraMatrix);
+        Matrix3D.multiplyInto(toPerspectiveMatrix, toCameraMatrix, tempMatrix);
+        Matrix3D.multiplyInto(toScreenMatrix, tempMatrix, projectionMatrix);
 
-        switch (drawOrder) {
-            case SORT_OBJECTS: drawObjects(camera, edgeLimit); break;
-            case SORT_EDGES: drawEdges(camera, edgeLimit); break;
+        int vertexCount = geometry.getVertexCount();
+        if (screenX.length < vertexCount) {
+            int capacity = Math.max(vertexCount, 2 * screenX.length);
+            screenX = new float[capacity];
+            screenY = new float[capacity];
+            screenW = new float[capacity];
         }
+        int edgeCount = getCachedEdgeCount();
+        if (edgeState.length < edgeCount) edgeState = new byte[Math.max(edgeCount, 2 * edgeState.length)];
+
+        frustum.update(toCameraMatrix, toScreenMatrix, d, windowWidth, windowHeight, nearPlane);
     }
 
     /**
-     * Draw one frame of the scene using the {@link World#renderer} where draw order is obtained by
-     * {@link DrawOrder#SORT_OBJECTS sorting the objects}.
-     * @param camera position and rotation of the camera in the scene
-     * @param edgeLimit draw only a limited number of edges (-1 for all)
+     * Fill {@link World#vertexRanges}, {@link World#edgeRanges} and {@link World#objectEdgeRangeStart} with the parts
+     * of the scene that pass frustum culling (or with the whole scene if culling is disabled).
      */
-    private void drawObjects(final Camera camera, int edgeLimit) {
-        setToScreenMatrix();
-        float[][] toCameraMatrix = camera.calculateToCameraMatrix();
-
-        objects.sort((left, right) -> {
-            float distRight = distSq(camera.getPosition(), new float[]{right.getPosition(0), right.getPosition(1), right.getPosition(2)});
-            float distLeft = distSq(camera.getPosition(), new float[]{left.getPosition(0), left.getPosition(1), left.getPosition(2)});
-            return Float.compare(distRight, distLeft);
-        });
-
-        for (Object3D obj : objects) {
-            Vector[] worldVertices = obj.calculateWorldVertices();
-            Vector[] cameraVertices = new Vector[worldVertices.length];
-            for (int i = 0; i < worldVertices.length; i++)
-                cameraVertices[i] = Matrix3D.toPosition(Matrix3D.multiply(toCameraMatrix, Matrix3D.toVector(worldVertices[i])));
-            Vector[] perspectiveVertices = new Vector[cameraVertices.length];
-            for (int i = 0; i < cameraVertices.length; i++) {
-                if (cameraVertices[i].z >= 0)
-                    perspectiveVertices[i] = Matrix3D.toPosition(Matrix3D.multiply(toPerspectiveMatrix, Matrix3D.toVector(cameraVertices[i])));
-                else
-                    perspectiveVertices[i] = Matrix3D.toPosition(Matrix3D.multiply(toPerspectiveNegativeMatrix, Matrix3D.toVector(cameraVertices[i])));
+    private void cullObjects() {
+        vertexRangesLength = 0;
+        edgeRangesLength = 0;
+        int objectCount = objects.size();
+        if (objectEdgeRangeStart.length < objectCount + 1) objectEdgeRangeStart = new int[2 * (objectCount + 1)];
+
+        for (int objectId = 0; objectId < objectCount; objectId++) {
+            objectEdgeRangeStart[objectId] = edgeRangesLength;
+            firstMergeableEdgeRange = edgeRangesLength;
+            if (isSimplified(objectId)) continue;
+            int vertexStart = objectVertexStart[objectId], edgeStart = objectEdgeStart[objectId];
+            Object3D obj = objects.get(objectId);
+            if (frustumCulling && obj instanceof InstancedObject) {
+                float radius = instanceSpheres[4*objectId+3];
+                if (radius < 0 || frustum.classify(instanceSpheres[4*objectId], instanceSpheres[4*objectId+1], instanceSpheres[4*objectId+2], radius) == ViewFrustum.OUTSIDE) continue;
+                addVertexRange(vertexStart, objectVertexStart[objectId + 1]);
+                addEdgeRange(edgeStart, objectEdgeStart[objectId + 1]);
+            }
+            else if (frustumCulling) cullObject(obj, vertexStart, edgeStart);
+            else {
+                addVertexRange(vertexStart, objectVertexStart[objectId + 1]);
+                addEdgeRange(edgeStart, objectEdgeStart[objectId + 1]);
             }
-            Vector[] screenVertices = new Vector[perspectiveVertices.length];
-            for (int i = 0; i < perspectiveVertices.length; i++)
-                screenVertices[i] = Matrix3D.toPosition(Matrix3D.multiply(toScreenMatrix, Matrix3D.toVector(perspectiveVertices[i])));
+        }
+        objectEdgeRangeStart[objectCount] = edgeRangesLength;
+    }
 
-            int[][] edges = obj.getEdgesAll();
-            for (int[] edge : edges) {
-                if (edgeLimit-- == 0) return;
-                if (screenVertices[edge[0]].z >= 0 && screenVertices[edge[1]].z >= 0) {
-                    if (edge.length >= 3) renderer.setStrokeColor(Color.getR(edge[2]), Color.getG(edge[2]), Color.getB(edge[2]));
-                    else renderer.setStrokeColor(255, 255, 255);
-                    if (edge.length >= 4) {
-                        renderer.setStrokeWeight(Float.intBitsToFloat(edge[3]) / cameraVertices[edge[0]].mag());
-                    } else renderer.setStrokeWeight(1);
-                    drawLineClipped(screenVertices[edge[0]].x, screenVertices[edge[0]].y, screenVertices[edge[1]].x, screenVertices[edge[1]].y);
-                }
+    /**
+     * Test the object against the view frustum and add the ranges of its vertices and edges that may be visible. If
+     * the object is partially visible, its nested objects are tested recursively.
+     * @param obj object to test
+     * @param vertexStart index of the first vertex of the object in {@link World#geometry}
+     * @param edgeStart index of the first edge of the object in {@link World#geometry}
+     */
+    private void cullObject(Object3D obj, int vertexStart, int edgeStart) {
+        int vertexEnd = vertexStart + obj.getVertexCountAll();
+        int edgeEnd = edgeStart + obj.getEdgeCountAll();
+
+        float[] sphere = obj.getBoundingSphere();
+        if (sphere[3] < 0) return;
+        int result = frustum.classify(sphere[0], sphere[1], sphere[2], sphere[3]);
+        if (result == ViewFrustum.OUTSIDE) return;
+
+        // vertices and edges of nested objects are stored first, own vertices and edges last
+        if (result == ViewFrustum.INTERSECTING && obj.getVertices().length != obj.getVertexCountAll()) {
+            for (Object3D child : obj.getNested()) {
+                cullObject(child, vertexStart, edgeStart);
+                vertexStart += child.getVertexCountAll();
+                edgeStart += child.getEdgeCountAll();
             }
         }
+        addVertexRange(vertexStart, vertexEnd);
+        addEdgeRange(edgeStart, edgeEnd);
     }
 
     /**
-     * Draw one frame of the scene using the {@link World#renderer} where draw order is obtained by
-     * {@link DrawOrder#SORT_EDGES sorting the edges}.
-     * @param camera position and rotation of the camera in the scene
-     * @param edgeLimit draw only a limited number of edges (-1 for all)
+     * Add a range of vertices to {@link World#vertexRanges}, merging it with the last range if they are adjacent.
+     * @param start index of the first vertex
+     * @param end index after the last vertex
      */
-    private void drawEdges (final Camera camera, int edgeLimit) {
-        setToScreenMatrix();
-        float[][] toCameraMatrix = camera.calculateToCameraMatrix();
-
-        Vector[] cameraVertices = new Vector[vertices.size()];
-        for (int i = 0; i < vertices.size(); i++)
-            cameraVertices[i] = Matrix3D.toPosition(Matrix3D.multiply(toCameraMatrix, Matrix3D.toVector(vertices.get(i))));
-
-        Vector[] perspectiveVertices = new Vector[cameraVertices.length];
-        for (int i = 0; i < cameraVertices.length; i++) {
-            if (cameraVertices[i].z >= 0)
-                perspectiveVertices[i] = Matrix3D.toPosition(Matrix3D.multiply(toPerspectiveMatrix, Matrix3D.toVector(cameraVertices[i])));
-            else
-                perspectiveVertices[i] = Matrix3D.toPosition(Matrix3D.multiply(toPerspectiveNegativeMatrix, Matrix3D.toVector(cameraVertices[i])));
-        }
-
-        Vector[] screenVertices = new Vector[perspectiveVertices.length];
-        for (int i = 0; i < perspectiveVertices.length; i++)
-            screenVertices[i] = Matrix3D.toPosition(Matrix3D.multiply(toScreenMatrix, Matrix3D.toVector(perspectiveVertices[i])));
-
-        edges.sort((left, right) -> {
-            float[] firstEdge = new float[] {
-                    (vertices.get(left[0]).x + vertices.get(left[1]).x)/2,
-                    (vertices.get(left[0]).y + vertices.get(left[1]).y)/2,
-                    (vertices.get(left[0]).z + vertices.get(left[1]).z)/2,
-            };
-            float[] secondEdge = new float[] {
-                    (vertices.get(right[0]).x + vertices.get(right[1]).x)/2,
-                    (vertices.get(right[0]).y + vertices.get(right[1]).y)/2,
-                    (vertices.get(right[0]).z + vertices.get(right[1]).z)/2,
-            };
-            return Float.compare(distSq(camera.getPosition(), secondEdge),distSq(camera.getPosition(), firstEdge));
-        });
-
-        for (int[] edge : edges) {
-            if (edgeLimit-- == 0) return;
-            if (screenVertices[edge[0]].z >= 0 && screenVertices[edge[1]].z >= 0) {
-                if (edge.length >= 3) renderer.setStrokeColor(Color.getR(edge[2]), Color.getG(edge[2]), Color.getB(edge[2]));
-                else renderer.setStrokeColor(255, 255, 255);
-                if (edge.length >= 4) {
-                    renderer.setStrokeWeight(Float.intBitsToFloat(edge[3]) / cameraVertices[edge[0]].mag());
-                }
-                else renderer.setStrokeWeight(1);
-                drawLineClipped(screenVertices[edge[0]].x, screenVertices[edge[0]].y, screenVertices[edge[1]].x, screenVertices[edge[1]].y);
+    private void addVertexRange(int start, int end) {
+        if (start >= end) return;
+        if (vertexRangesLength > 0 && vertexRanges[vertexRangesLength - 1] == start) {
+            vertexRanges[vertexRangesLength - 1] = end;
+            return;
+        }
+        if (vertexRangesLength + 2 > vertexRanges.length) vertexRanges = Arrays.copyOf(vertexRanges, Math.max(16, 2 * vertexRanges.length));
+        vertexRanges[vertexRangesLength++] = start;
+        vertexRanges[vertexRangesLength++] = end;
+    }
+
+    /**
+     * Add a range of edges to {@link World#edgeRanges}, merging it with the last range if they are adjacent and belong
+     * to the same object.
+     * @param start index of the first edge
+     * @param end index after the last edge
+     */
+    private void addEdgeRange(int start, int end) {
+        if (start >= end) return;
+        if (edgeRangesLength > firstMergeableEdgeRange && edgeRanges[edgeRangesLength - 1] == start) {
+            edgeRanges[edgeRangesLength - 1] = end;
+            return;
+        }
+        if (edgeRangesLength + 2 > edgeRanges.length) edgeRanges = Arrays.copyOf(edgeRanges, Math.max(16, 2 * edgeRanges.length));
+        edgeRanges[edgeRangesLength++] = start;
+        edgeRanges[edgeRangesLength++] = end;
+    }
+
+    /**
+     * Project the vertices and test the edges that passed frustum culling. Edges of simplified objects are marked as
+     * {@link World#EDGE_REPLACED}, all other edges as {@link World#EDGE_HIDDEN}.
+     */
+    private void projectVisible() {
+        for (int i = 0; i < vertexRangesLength; i += 2) runRange(projectVerticesAction, vertexRanges[i], vertexRanges[i + 1]);
+        Arrays.fill(edgeState, 0, getCachedEdgeCount(), EDGE_HIDDEN);
+        for (int objectId = 0; simplifiedObjectCount > 0 && objectId < objects.size(); objectId++) {
+            if (isSimplified(objectId)) Arrays.fill(edgeState, objectEdgeStart[objectId], objectEdgeStart[objectId + 1], EDGE_REPLACED);
+        }
+        for (int i = 0; i < edgeRangesLength; i += 2) runRange(testEdgeVisibilityAction, edgeRanges[i], edgeRanges[i + 1]);
+    }
+
+    /**
+     * Run the action on the range [start, end). If {@link World#parallel parallel mode} is enabled and the range is at
+     * least {@link World#parallelThreshold} long, the range is split into chunks processed on the common
+     * {@link ForkJoinPool}, otherwise the action runs directly on the calling thread.
+     * @param action action to run
+     * @param start index of the first element to process
+     * @param end index after the last element to process
+     */
+    private void runRange(RangeAction action, int start, int end) {
+        runRange(action, start, end, end - start);
+    }
+
+    /**
+     * Run the action on the range [start, end), same as {@link World#runRange(RangeAction, int, int)}, but with the
+     * amount of work compared with {@link World#parallelThreshold} given separately - for ranges of elements
+     * representing more than one vertex/edge each.
+     * @param action action to run
+     * @param start index of the first element to process
+     * @param end index after the last element to process
+     * @param work number of vertices/edges processed by the whole range
+     */
+    private void runRange(RangeAction action, int start, int end, int work) {
+        if (parallel && work >= parallelThreshold) ForkJoinPool.commonPool().invoke(new RangeTask(action, start, end));
+        else action.run(start, end);
+    }
+
+    /**
+     * Get the number of chunks to split work on count elements into, following the same rules as
+     * {@link World#runRange}.
+     * @param count number of elements
+     * @return number of chunks, 1 if the work should be done sequentially
+     */
+    private int getChunkCount(int count) {
+        if (!parallel || count < parallelThreshold) return 1;
+        return Math.max(1, Math.min(4 * ForkJoinPool.getCommonPoolParallelism(), count / PARALLEL_CHUNK));
+    }
+
+    /**
+     * Project cached vertices in the range [start, end) from world space to window space using
+     * {@link World#projectionMatrix} and store them in {@link World#screenX}, {@link World#screenY} and
+     * {@link World#screenW}. Vertices behind the near plane only get their w coordinate - the perspective division and
+     * conversion to window space are skipped for them, edges containing them are either not drawn or cut at the near
+     * plane first.
+     * @param start index of the first vertex to project
+     * @param end index after the last vertex to project
+     */
+    private void projectVertices(int start, int end) {
+        float[] x = geometry.getX(), y = geometry.getY(), z = geometry.getZ();
+        float[][] m = projectionMatrix;
+        float m00 = m[0][0], m01 = m[0][1], m02 = m[0][2], m03 = m[0][3];
+        float m10 = m[1][0], m11 = m[1][1], m12 = m[1][2], m13 = m[1][3];
+        float m30 = m[3][0], m31 = m[3][1], m32 = m[3][2], m33 = m[3][3];
+
+        for (int i = start; i < end; i++) {
+            float vx = x[i], vy = y[i], vz = z[i];
+            float w = m30*vx + m31*vy + m32*vz + m33;
+            screenW[i] = w;
+            if (w >= nearW) {
+                float invW = 1 / w;
+                screenX[i] = (m00*vx + m01*vy + m02*vz + m03) * invW;
+                screenY[i] = (m10*vx + m11*vy + m12*vz + m13) * invW;
             }
         }
     }
 
     /**
-     * Returns distance between two points squared, for performance reasons - can be used in cases when there is no
-     * reason to take the square root of the result. For example when sorting points by distances.
-     * @param first point in 3D space (float array with length 3)
-     * @param second point in 3D space (float array with length 3)
-     * @return distance between the two points squared
+     * Test cached edges in the range [start, end) against the near plane and store the result in
+     * {@link World#edgeState}. Vertices have to be projected using {@link World#projectVertices} first.
+     * @param start index of the first edge to test
+     * @param end index after the last edge to test
      */
-    private float distSq(float[] first, float[] second) {
-        float diffX = first[0]-second[0];
-        float diffY = first[1]-second[1];
-        float diffZ = first[2]-second[2];
-        return diffX*diffX + diffY*diffY + diffZ*diffZ;
+    private void testEdgeVisibility(int start, int end) {
+        float near = nearW;
+        for (int objectId = findObjectByEdge(start); start < end; objectId++) {
+            int objectEnd = Math.min(end, objectEdgeStart[objectId + 1]);
+            GeometryStore source = objectEdgeSource[objectId];
+            int[] from = source.getFrom(), to = source.getTo();
+            int sourceOffset = objectEdgeSourceStart[objectId] - objectEdgeStart[objectId], vertexStart = objectVertexStart[objectId];
+
+            for (int i = start; i < objectEnd; i++) {
+                boolean fromInFront = screenW[from[i + sourceOffset] + vertexStart] >= near;
+                boolean toInFront = screenW[to[i + sourceOffset] + vertexStart] >= near;
+                if (fromInFront && toInFront) edgeState[i] = EDGE_IN_FRONT;
+                else if (fromInFront || toInFront) edgeState[i] = EDGE_CROSSING;
+                else edgeState[i] = EDGE_HIDDEN;
+            }
+            start = objectEnd;
+        }
     }
 
     /**
-     * Draw part of the line specified by its endpoints (x0,y0) and (x1,y1) that is inside of the output window, where
-     * window size is specified by the {@link World#renderer}.
-     * @param x0 x coordinate of the first endpoint
-     * @param y0 y coordinate of the first endpoint
-     * @param x1 x coordinate of the second endpoint
-     * @param y1 y coordinate of the second endpoint
+     * Find the object the edge belongs to.
+     * @param edge index of the edge in the scene (see {@link World#objectEdgeStart})
+     * @return index of the object in {@link World#objects}
      */
-    private void drawLineClipped(float x0, float y0, float x1, float y1) {
-        boolean p0In = inWindow(x0, y0), p1In = inWindow(x1, y1);
-        if (p0In && p1In) renderer.line(x0, y0, x1, y1);
-        else {
-            int[][] borders = {{0,0,0,windowHeight-1}, {0,0,windowWidth-1,0}, {windowWidth-1,0,windowWidth-1,windowHeight-1},
-                    {0,windowHeight-1,windowWidth-1,windowHeight-1}};
-            Vector[] intersectionPoints = new Vector[4];
-            int i = 0;
-            for (int[] border : borders) {
-                Vector intersection = getIntersection(x0,y0,x1,y1,border[0],border[1],border[2],border[3]);
-                if (intersection != null) intersectionPoints[i++] = intersection;
+    private int findObjectByEdge(int edge) {
+        // last object starting at or before the edge (objects without edges start at the same index as the next one)
+        int low = 0, high = objects.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (objectEdgeStart[middle] <= edge) low = middle;
+            else high = middle - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Calculate depth keys of the edges [start, end) into {@link World#edgeDepthKeys}. Depth of an edge is the squared
+     * distance of its midpoint from {@link World#sortCameraPosition}, converted using
+     * {@link RadixSort#toDescendingKey}.
+     * @param start index of the first edge to process
+     * @param end index after the last edge to process
+     */
+    private void computeEdgeDepths(int start, int end) {
+        float[] x = geometry.getX(), y = geometry.getY(), z = geometry.getZ();
+        float[] cameraPosition = sortCameraPosition;
+        for (int objectId = findObjectByEdge(start); start < end; objectId++) {
+            int objectEnd = Math.min(end, objectEdgeStart[objectId + 1]);
+            GeometryStore source = objectEdgeSource[objectId];
+            int[] from = source.getFrom(), to = source.getTo();
+            int sourceOffset = objectEdgeSourceStart[objectId] - objectEdgeStart[objectId], vertexStart = objectVertexStart[objectId];
+
+            for (int i = start; i < objectEnd; i++) {
+                int edgeFrom = from[i + sourceOffset] + vertexStart, edgeTo = to[i + sourceOffset] + vertexStart;
+                float distance = distSq(cameraPosition, (x[edgeFrom] + x[edgeTo])/2, (y[edgeFrom] + y[edgeTo])/2, (z[edgeFrom] + z[edgeTo])/2);
+                edgeDepthKeys[i] = RadixSort.toDescendingKey(distance);
             }
+            start = objectEnd;
+        }
+    }
+
+    /**
+     * Copy depth keys of the edges at positions [start, end) of {@link World#edgeOrder} from
+     * {@link World#edgeDepthKeys} into {@link World#edgeKeys}.
+     * @param start index of the first position to process
+     * @param end index after the last position to process
+     */
+    private void computeDepthKeys(int start, int end) {
+        for (int i = start; i < end; i++) edgeKeys[i] = edgeDepthKeys[edgeOrder[i]];
+    }
+
+    /**
+     * Try to sort {@link World#edgeOrder} by {@link World#edgeKeys} using insertion sort, which is fast if the order is
+     * nearly sorted - usually the case when the camera moved only a little since the last frame. Gives up if there are
+     * too many neighbouring edges in the wrong order or if the sort takes too long. Even then the order is still a
+     * valid permutation with matching keys, only not sorted.
+     * @param edgeCount number of edges
+     * @return true if the order got sorted, false if the full sort is needed
+     */
+    private boolean fixUpEdgeOrder(int edgeCount) {
+        int[] keys = edgeKeys, order = edgeOrder;
 
-            if (!p0In && !p1In) {
-                if (intersectionPoints[0] == null || intersectionPoints[1] == null) return;
-                renderer.line(intersectionPoints[0].x, intersectionPoints[0].y, intersectionPoints[1].x, intersectionPoints[1].y);
-            } else if (!p0In) {
-                if (intersectionPoints[0] == null) return;
-                renderer.line(intersectionPoints[0].x, intersectionPoints[0].y, x1, y1);
-            } else {
-                if (intersectionPoints[0] == null) return;
-                renderer.line(x0, y0, intersectionPoints[0].x, intersectionPoints[0].y);
+        // keys are compared as unsigned ints, flipping the sign bit allows comparing them as signed ints
+        int descents = 0;
+        for (int i = 1; i < edgeCount; i++)
+            if ((keys[i - 1] ^ Integer.MIN_VALUE) > (keys[i] ^ Integer.MIN_VALUE)) descents++;
+        if (descents == 0) return true;
+        if (descents > edgeCount / NEARLY_SORTED_RATIO) return false;
+
+        long budget = (long) INSERTION_SORT_BUDGET * edgeCount;
+        for (int i = 1; i < edgeCount; i++) {
+            int key = keys[i], signedKey = key ^ Integer.MIN_VALUE, edge = order[i];
+            int j = i - 1;
+            for (; j >= 0 && (keys[j] ^ Integer.MIN_VALUE) > signedKey; j--) {
+                keys[j + 1] = keys[j];
+                order[j + 1] = order[j];
             }
+            keys[j + 1] = key;
+            order[j + 1] = edge;
+            budget -= i - 1 - j;
+            if (budget < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Draw a single cached edge if at least part of it is in front of the near plane. Edges crossing the near plane
+     * are cut at it first. Edges have to be tested using {@link World#testEdgeVisibility} first.
+     * @param objectId index of the object the edge belongs to in {@link World#objects}
+     * @param edge index of the edge in the scene
+     * @param cameraPosition position of the camera
+     */
+    private void drawEdge(int objectId, int edge, float[] cameraPosition) {
+        byte state = edgeState[edge];
+        if (state == EDGE_HIDDEN) return;
+
+        GeometryStore source = objectEdgeSource[objectId];
+        int sourceEdge = edge - objectEdgeStart[objectId] + objectEdgeSourceStart[objectId];
+        int from = source.getFrom()[sourceEdge] + objectVertexStart[objectId], to = source.getTo()[sourceEdge] + objectVertexStart[objectId];
+        drawVertices(state, from, to, source.getColor()[sourceEdge], source.getWeight()[sourceEdge], cameraPosition);
+    }
+
+    /**
+     * Draw an edge between two projected vertices, cutting it at the near plane if needed.
+     * @param state result of the near plane test of the edge ({@link World#EDGE_HIDDEN} edges aren't drawn)
+     * @param from index of the first vertex in {@link World#geometry}
+     * @param to index of the second vertex in {@link World#geometry}
+     * @param color color of the edge
+     * @param weight weight of the edge stored using {@link Float#floatToIntBits} or {@link GeometryStore#NO_WEIGHT}
+     * @param cameraPosition position of the camera
+     */
+    private void drawVertices(byte state, int from, int to, int color, int weight, float[] cameraPosition) {
+        if (state == EDGE_HIDDEN) return;
+
+        lineColor = color;
+        if (weight != GeometryStore.NO_WEIGHT) {
+            float distance = (float)Math.sqrt(distSq(cameraPosition, geometry.getX()[from], geometry.getY()[from], geometry.getZ()[from]));
+            lineWeight = Float.intBitsToFloat(weight) / distance;
+        }
+        else lineWeight = 1;
+
+        if (state == EDGE_IN_FRONT) drawLineClipped(screenX[from], screenY[from], screenX[to], screenY[to]);
+        else {
+            int front = (screenW[from] >= nearW) ? from : to, behind = (front == from) ? to : from;
+            cutAtNearPlane(front, behind);
+            drawLineClipped(screenX[front], screenY[front], nearPoint[0], nearPoint[1]);
         }
     }
 
     /**
-     * Get the point of intersection between two lines specified by their endpoints using line-line intersection
-     * (https://en.wikipedia.org/wiki/Line%E2%80%93line_intersection). x1,y1,x2,y2 specify endpoints of the first line,
-     * x3,y3,x4,y4 specify endpoints of the second line
-     * @return point of intersection or null if there isn't one
+     * Find the point where the edge between two vertices crosses the near plane and store its window coordinates in
+     * {@link World#nearPoint}. The edge is cut in world space (which is equivalent to cutting it in camera space, as
+     * w is an affine function of the world position) and only the resulting point gets projected.
+     * @param front index of the vertex in front of the near plane
+     * @param behind index of the vertex behind the near plane
      */
-    private Vector getIntersection(float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4) {
-        float denominator = (x1-x2)*(y3-y4)-(y1-y2)*(x3-x4);
+    private void cutAtNearPlane(int front, int behind) {
+        float[] x = geometry.getX(), y = geometry.getY(), z = geometry.getZ();
+        float t = (nearW - screenW[front]) / (screenW[behind] - screenW[front]);
+        float px = x[front] + t * (x[behind] - x[front]);
+        float py = y[front] + t * (y[behind] - y[front]);
+        float pz = z[front] + t * (z[behind] - z[front]);
 
-        if (Math.abs(denominator) < 0.000001) return null;
+        float[][] m = projectionMatrix;
+        nearPoint[0] = (m[0][0]*px + m[0][1]*py + m[0][2]*pz + m[0][3]) / nearW;
+        nearPoint[1] = (m[1][0]*px + m[1][1]*py + m[1][2]*pz + m[1][3]) / nearW;
+    }
 
-        float t = ((x1-x3)*(y3-y4)-(y1-y3)*(x3-x4))/denominator;
-        float u = ((y1-y2)*(x1-x3)-(x1-x2)*(y1-y3))/denominator;
+    /**
+     * Returns distance between two points squared, for performance reasons - can be used in cases when there is no
+     * reason to take the square root of the result. For example when sorting points by distances.
+     * @param first point in 3D space (float array with length 3)
+     * @param x x coordinate of the second point
+     * @param y y coordinate of the second point
+     * @param z z coordinate of the second point
+     * @return distance between the two points squared
+     */
+    private static float distSq(float[] first, float x, float y, float z) {
+        float diffX = first[0]-x;
+        float diffY = first[1]-y;
+        float diffZ = first[2]-z;
+        return diffX*diffX + diffY*diffY + diffZ*diffZ;
+    }
 
-        if (t < 0 || t > 1 || u < 0 || u > 1) return null;
+    /**
+     * Draw part of the line specified by its endpoints (x0,y0) and (x1,y1) that is inside of the output window, where
+     * window size is specified by the {@link World#renderer}. Uses {@link LineClipper}, so it doesn't allocate. The
+     * line is added to the current batch with {@link World#lineColor} and {@link World#lineWeight}.
+     * @param x0 x coordinate of the first endpoint
+     * @param y0 y coordinate of the first endpoint
+     * @param x1 x coordinate of the second endpoint
+     * @param y1 y coordinate of the second endpoint
+     */
+    private void drawLineClipped(float x0, float y0, float x1, float y1) {
+        if (!LineClipper.clip(x0, y0, x1, y1, 0, 0, windowWidth - 1, windowHeight - 1, clippedLine)) return;
 
-        return new Vector(x1+t*(x2-x1), y1+t*(y2-y1));
+        if (batchCount == LINE_BATCH_SIZE) flushLines();
+        System.arraycopy(clippedLine, 0, batchCoordinates, 4 * batchCount, 4);
+        batchColors[batchCount] = lineColor;
+        batchWeights[batchCount] = lineWeight;
+        batchCount++;
     }
 
     /**
-     * @param x x coordinate
-     * @param y y coordinate
-     * @return true if point (x,y) is in the window with size specified by the {@link World#renderer}, false otherwise
+     * Submit the lines of the current batch to the {@link World#renderer}.
      */
-    private boolean inWindow(float x, float y) {
-        return (x >= 0 && y >= 0 && x < windowWidth && y < windowHeight);
+    private void flushLines() {
+        if (batchCount == 0) return;
+        renderer.lines(batchCoordinates, batchColors, batchWeights, batchCount);
+        batchCount = 0;
     }
-}
\ No newline at end of file
+}
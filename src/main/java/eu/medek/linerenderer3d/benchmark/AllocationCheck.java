@@ -0,0 +1,95 @@
+package eu.medek.linerenderer3d.benchmark;
+
+import eu.medek.linerenderer3d.Renderer;
+import eu.medek.linerenderer3d.World;
+import eu.medek.linerenderer3d.camera.Camera;
+import eu.medek.linerenderer3d.objects.examples.Bench;
+import eu.medek.linerenderer3d.objects.examples.Box;
+import eu.medek.linerenderer3d.objects.examples.NestedLines;
+import eu.medek.linerenderer3d.objects.examples.NestedPyramid;
+import eu.medek.linerenderer3d.objects.examples.STLObject;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+
+/**
+ * Check that drawing a frame of a static scene doesn't allocate any memory once the {@link World} caches are built.
+ * Allocated bytes are measured using the HotSpot specific {@link com.sun.management.ThreadMXBean}. The check exits
+ * with status 1 if any frame allocated memory, so it can be run as a build step.
+ */
+public class AllocationCheck {
+    /**
+     * Number of frames drawn before measuring, so that caches are built and the code is compiled.
+     */
+    private static final int WARMUP_FRAMES = 200;
+
+    /**
+     * Number of measured frames.
+     */
+    private static final int MEASURED_FRAMES = 100;
+
+    /**
+     * Draw the demo scene (without the random tree) in every {@link World.DrawOrder draw order}, with and without
+     * {@link World#setLevelOfDetail(boolean) level of detail}, and print the number of bytes allocated per frame.
+     * Exits with status 1 if any of the combinations allocated memory.
+     * @param args optional path to the STLExamples folder (defaults to "STLExamples")
+     * @throws IOException if the example STL file can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        Path stlFolder = Path.of(args.length >= 1 ? args[0] : "STLExamples");
+
+        World world = new World(new Renderer() {
+            @Override
+            public int getWidth() {
+                return 1000;
+            }
+
+            @Override
+            public int getHeight() {
+                return 660;
+            }
+
+            @Override
+            public void setStrokeColor(int r, int g, int b) {}
+
+            @Override
+            public void setStrokeWeight(float strokeWeight) {}
+
+            @Override
+            public void line(float x0, float y0, float x1, float y1) {}
+        });
+        world.addObject(new Box(new float[]{0, -0.5f, 0}, new float[]{0,0,0}, new float[]{1,1,1}));
+        world.addObject(new Bench(new float[]{0, 0, -1}, new float[]{0,0,0}, new float[]{1f,1f,1f}));
+        world.addObject(new NestedLines(new float[]{0, 0, 1}, new float[]{0,0,0}, new float[]{1f,1f,1f}, 5));
+        world.addObject(new NestedPyramid(new float[]{0, 0, 2}, new float[]{0,0,0}, new float[]{.5f,.5f,.5f}, 5, (float)(Math.PI/6)));
+        world.addObject(new STLObject(new float[]{-2,-0.5f,0}, new float[]{(float)Math.PI/2,0,0}, new float[]{1,1,1}, stlFolder.resolve("Globe.stl"), true));
+
+        // inside of the scene, so that many edges need to be clipped
+        Camera camera = new Camera(new float[]{-1, -0.5f, -1.5f}, new float[]{0, 0, 0});
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        boolean allocationFree = true;
+
+        for (boolean levelOfDetail : new boolean[]{true, false}) {
+            world.setLevelOfDetail(levelOfDetail);
+            for (World.DrawOrder drawOrder : World.DrawOrder.values()) {
+                for (int i = 0; i < WARMUP_FRAMES; i++) world.draw(camera, -1, drawOrder);
+
+                long before = threadBean.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < MEASURED_FRAMES; i++) world.draw(camera, -1, drawOrder);
+                long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+                System.out.println(drawOrder + (levelOfDetail ? " with" : " without") + " level of detail: "
+                        + allocated / MEASURED_FRAMES + " bytes allocated per frame");
+                if (allocated != 0) allocationFree = false;
+            }
+        }
+
+        if (!allocationFree) {
+            System.out.println("FAILED: drawing a frame allocated memory");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package eu.medek.linerenderer3d.benchmark;
+
+import eu.medek.linerenderer3d.system.LineClipper;
+import eu.medek.linerenderer3d.system.Vector;
+
+import java.util.Random;
+
+/**
+ * Microbenchmark comparing {@link LineClipper} with the line-line intersection based clipper previously used by
+ * {@link eu.medek.linerenderer3d.World}. Lines are random, with endpoints in a square three times the size of the
+ * window centered on it, so most of them need clipping - similar to zooming into a dense model.
+ */
+public class ClipperBenchmark {
+    /**
+     * Size of the window the lines are clipped to.
+     */
+    private static final int WIDTH = 1000, HEIGHT = 660;
+
+    /**
+     * Number of random lines.
+     */
+    private static final int LINES = 1 << 20;
+
+    /**
+     * Number of measured rounds (after the same number of warmup rounds).
+     */
+    private static final int ROUNDS = 10;
+
+    /**
+     * Sink for results, so that the JIT can't remove the clipping.
+     */
+    private static float sink = 0;
+
+    /**
+     * Run the benchmark and print the average time per line and the number of drawn lines for both clippers.
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        float[] lines = new float[LINES * 4];
+        for (int i = 0; i < LINES; i++) {
+            lines[4*i] = (random.nextFloat() * 3 - 1) * WIDTH;
+            lines[4*i+1] = (random.nextFloat() * 3 - 1) * HEIGHT;
+            lines[4*i+2] = (random.nextFloat() * 3 - 1) * WIDTH;
+            lines[4*i+3] = (random.nextFloat() * 3 - 1) * HEIGHT;
+        }
+
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            boolean measure = round >= ROUNDS;
+
+            long start = System.nanoTime();
+            int drawnOutcode = runOutcode(lines);
+            long outcodeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int drawnLegacy = runLegacy(lines);
+            long legacyTime = System.nanoTime() - start;
+
+            if (measure) {
+                System.out.printf("outcode: %.2f ns/line (%d drawn), legacy: %.2f ns/line (%d drawn)%n",
+                        (double) outcodeTime / LINES, drawnOutcode, (double) legacyTime / LINES, drawnLegacy);
+            }
+        }
+        if (sink == 42) System.out.println();
+    }
+
+    /**
+     * Clip all lines using {@link LineClipper}.
+     * @param lines lines as [x0, y0, x1, y1, ...]
+     * @return number of lines that are at least partially inside the window
+     */
+    private static int runOutcode(float[] lines) {
+        float[] result = new float[4];
+        int drawn = 0;
+        for (int i = 0; i < lines.length; i += 4) {
+            if (LineClipper.clip(lines[i], lines[i+1], lines[i+2], lines[i+3], 0, 0, WIDTH - 1, HEIGHT - 1, result)) {
+                drawn++;
+                sink += result[0] + result[3];
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Clip all lines using the legacy clipper.
+     * @param lines lines as [x0, y0, x1, y1, ...]
+     * @return number of lines that are at least partially inside the window
+     */
+    private static int runLegacy(float[] lines) {
+        int drawn = 0;
+        for (int i = 0; i < lines.length; i += 4) {
+            float[] result = clipLegacy(lines[i], lines[i+1], lines[i+2], lines[i+3]);
+            if (result != null) {
+                drawn++;
+                sink += result[0] + result[3];
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Copy of the former World.drawLineClipped, returning the line instead of drawing it.
+     * @return clipped line as [x0, y0, x1, y1] or null if it isn't drawn
+     */
+    private static float[] clipLegacy(float x0, float y0, float x1, float y1) {
+        boolean p0In = inWindow(x0, y0), p1In = inWindow(x1, y1);
+        if (p0In && p1In) return new float[]{x0, y0, x1, y1};
+        else {
+            int[][] borders = {{0,0,0,HEIGHT-1}, {0,0,WIDTH-1,0}, {WIDTH-1,0,WIDTH-1,HEIGHT-1},
+                    {0,HEIGHT-1,WIDTH-1,HEIGHT-1}};
+            Vector[] intersectionPoints = new Vector[4];
+            int i = 0;
+            for (int[] border : borders) {
+                Vector intersection = getIntersection(x0,y0,x1,y1,border[0],border[1],border[2],border[3]);
+                if (intersection != null) intersectionPoints[i++] = intersection;
+            }
+
+            if (!p0In && !p1In) {
+                if (intersectionPoints[0] == null || intersectionPoints[1] == null) return null;
+                return new float[]{intersectionPoints[0].x, intersectionPoints[0].y, intersectionPoints[1].x, intersectionPoints[1].y};
+            } else if (!p0In) {
+                if (intersectionPoints[0] == null) return null;
+                return new float[]{intersectionPoints[0].x, intersectionPoints[0].y, x1, y1};
+            } else {
+                if (intersectionPoints[0] == null) return null;
+                return new float[]{x0, y0, intersectionPoints[0].x, intersectionPoints[0].y};
+            }
+        }
+    }
+
+    /**
+     * Copy of the former World.getIntersection.
+     * @return point of intersection or null if there isn't one
+     */
+    private static Vector getIntersection(float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4) {
+        float denominator = (x1-x2)*(y3-y4)-(y1-y2)*(x3-x4);
+
+        if (Math.abs(denominator) < 0.000001) return null;
+
+        float t = ((x1-x3)*(y3-y4)-(y1-y3)*(x3-x4))/denominator;
+        float u = ((y1-y2)*(x1-x3)-(x1-x2)*(y1-y3))/denominator;
+
+        if (t < 0 || t > 1 || u < 0 || u > 1) return null;
+
+        return new Vector(x1+t*(x2-x1), y1+t*(y2-y1));
+    }
+
+    /**
+     * Copy of the former World.inWindow.
+     * @return true if point (x,y) is in the window
+     */
+    private static boolean inWindow(float x, float y) {
+        return (x >= 0 && y >= 0 && x < WIDTH && y < HEIGHT);
+    }
+}
@@ -0,0 +1,163 @@
+package eu.medek.linerenderer3d.benchmark;
+
+import eu.medek.linerenderer3d.system.stlreader.STLMesh;
+import eu.medek.linerenderer3d.system.stlreader.STLReader;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.DoubleFunction;
+
+/**
+ * Check that parsing a text STL file in parallel ranges gives exactly the same triangles in the same order as parsing
+ * it sequentially, for any number of ranges, and that {@link STLReader#tryRead(float[], float[])} stores the same
+ * triangles into arrays supplied by the caller. Generated files use different number formats and whitespace, text STL
+ * files in the examples folder are checked too. The check exits with status 1 on any difference, so it can be run as
+ * a build step.
+ */
+public class ParallelParseCheck {
+    /**
+     * Number of triangles in each generated file.
+     */
+    private static final int TRIANGLES = 2000;
+
+    /**
+     * Numbers of ranges to check - every count up to 32, then larger ones up to more ranges than facets, so that
+     * some ranges are empty.
+     */
+    private static final int[] RANGES = rangeCounts();
+
+    /**
+     * Number formats of the generated files, each with a name.
+     */
+    private static final String[] FORMAT_NAMES = {"decimal", "scientific", "upper case exponent", "shortest",
+            "long mantissa"};
+
+    /**
+     * Number formats of the generated files, in the order of {@link #FORMAT_NAMES}.
+     */
+    private static final List<DoubleFunction<String>> FORMATS = List.of(
+            value -> String.format(Locale.ROOT, "%.6f", value),
+            value -> String.format(Locale.ROOT, "%e", value),
+            value -> String.format(Locale.ROOT, "%+.9E", value),
+            value -> Float.toString((float)value),
+            value -> String.format(Locale.ROOT, "%.25f", value));
+
+    /**
+     * Parse the generated files and the text STL files in the examples folder with different numbers of ranges and
+     * compare the results with the sequential parse. Exits with status 1 if any of them differ.
+     * @param args optional path to the STLExamples folder (defaults to "STLExamples")
+     * @throws IOException if a file can't be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        Path stlFolder = Path.of(args.length >= 1 ? args[0] : "STLExamples");
+        boolean same = true;
+
+        for (int format = 0; format < FORMATS.size(); format++) {
+            Path file = Files.createTempFile("ParallelParseCheck", ".stl");
+            try {
+                writeFile(file, FORMATS.get(format), format % 2 == 0 ? "\n" : "\r\n", new Random(format));
+                same &= check(file, FORMAT_NAMES[format]);
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        if (Files.isDirectory(stlFolder)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(stlFolder, "*.stl")) {
+                for (Path file : files) {
+                    if (!new STLReader(file).isBinaryFile()) same &= check(file, file.getFileName().toString());
+                }
+            }
+        }
+
+        if (!same) {
+            System.out.println("FAILED: parsed triangles don't match sequential parsing");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parse a file with every number of ranges in {@link #RANGES}, with and without normals, and into arrays of the
+     * size of the mesh and of half of it, and compare the results with the sequential parse.
+     * @param file text STL file
+     * @param name name of the file printed with the result
+     * @return true if all results are the same as the sequential one
+     * @throws IOException if the file can't be read
+     */
+    private static boolean check(Path file, String name) throws IOException {
+        STLReader reader = new STLReader(file);
+        STLMesh expected = reader.readAsTextMesh(true, 1);
+        STLMesh expectedWithoutNormals = reader.readAsTextMesh(false, 1);
+        List<Integer> different = new ArrayList<>();
+        for (int ranges : RANGES) {
+            STLMesh mesh = reader.readAsTextMesh(true, ranges), withoutNormals = reader.readAsTextMesh(false, ranges);
+            if (!Arrays.equals(mesh.getVertices(), expected.getVertices())
+                    || !Arrays.equals(mesh.getNormals(), expected.getNormals())
+                    || !Arrays.equals(withoutNormals.getVertices(), expectedWithoutNormals.getVertices())
+                    || withoutNormals.getNormals() != null) {
+                different.add(ranges);
+            }
+        }
+
+        int count = expected.getTriangleCount(), half = count / 2;
+        float[] vertices = new float[9 * count], normals = new float[3 * count];
+        float[] halfVertices = new float[9 * half], halfNormals = new float[3 * half];
+        boolean arraysSame = reader.tryRead(vertices, normals) == count
+                && reader.tryRead(halfVertices, halfNormals) == count
+                && Arrays.equals(vertices, expected.getVertices()) && Arrays.equals(normals, expected.getNormals())
+                && Arrays.equals(halfVertices, Arrays.copyOf(expected.getVertices(), 9 * half))
+                && Arrays.equals(halfNormals, Arrays.copyOf(expected.getNormals(), 3 * half));
+
+        System.out.println(name + ": " + count + " triangles, " + RANGES.length + " range counts checked"
+                + (different.isEmpty() ? "" : ", DIFFERENT for " + different)
+                + (arraysSame ? "" : ", DIFFERENT when read into arrays"));
+        return different.isEmpty() && arraysSame;
+    }
+
+    /**
+     * Write a text STL file with random triangles.
+     * @param file output file
+     * @param format format of the numbers
+     * @param newLine line separator
+     * @param random source of the coordinates
+     * @throws IOException if the file can't be written
+     */
+    private static void writeFile(Path file, DoubleFunction<String> format, String newLine, Random random)
+            throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.print("solid check" + newLine);
+            for (int i = 0; i < TRIANGLES; i++) {
+                out.print("  facet normal");
+                for (int j = 0; j < 3; j++) out.print(" " + format.apply(random.nextGaussian()));
+                out.print(newLine + "    outer loop" + newLine);
+                for (int vertex = 0; vertex < 3; vertex++) {
+                    out.print("\tvertex");
+                    // mix magnitudes, so that both the fast path and the fallback of the number parser are used
+                    for (int j = 0; j < 3; j++) out.print(" " + format.apply(random.nextGaussian() * Math.pow(10, random.nextInt(9) - 4)));
+                    out.print(newLine);
+                }
+                out.print("    endloop" + newLine + "  endfacet" + newLine);
+            }
+            out.print("endsolid check" + newLine);
+        }
+    }
+
+    /**
+     * @return numbers of ranges to check, see {@link #RANGES}
+     */
+    private static int[] rangeCounts() {
+        int[] counts = new int[31 + 6];
+        for (int i = 0; i < 31; i++) counts[i] = i + 2;
+        int[] larger = {50, 100, 250, 500, 1000, 3 * TRIANGLES};
+        System.arraycopy(larger, 0, counts, 31, larger.length);
+        return counts;
+    }
+}
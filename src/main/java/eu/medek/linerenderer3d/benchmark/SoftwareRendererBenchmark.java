@@ -0,0 +1,99 @@
+package eu.medek.linerenderer3d.benchmark;
+
+import eu.medek.linerenderer3d.World;
+import eu.medek.linerenderer3d.camera.Camera;
+import eu.medek.linerenderer3d.objects.examples.Bench;
+import eu.medek.linerenderer3d.objects.examples.Box;
+import eu.medek.linerenderer3d.objects.examples.NestedLines;
+import eu.medek.linerenderer3d.objects.examples.NestedPyramid;
+import eu.medek.linerenderer3d.objects.examples.STLObject;
+import eu.medek.linerenderer3d.renderers.SoftwareRenderer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Benchmark of the {@link SoftwareRenderer} - measures the number of random lines rasterized per second and the time
+ * of drawing a frame of the demo scene with {@link World#draw}.
+ */
+public class SoftwareRendererBenchmark {
+    /**
+     * Size of the framebuffer.
+     */
+    private static final int WIDTH = 1000, HEIGHT = 660;
+
+    /**
+     * Number of random lines in one round.
+     */
+    private static final int LINES = 1 << 20;
+
+    /**
+     * Maximum length of the random lines along each axis.
+     */
+    private static final int MAX_LINE_SIZE = 40;
+
+    /**
+     * Number of measured rounds (after the same number of warmup rounds).
+     */
+    private static final int ROUNDS = 10;
+
+    /**
+     * Number of frames of the demo scene drawn in one round.
+     */
+    private static final int FRAMES = 20;
+
+    /**
+     * Run the benchmark and print the results.
+     * @param args optional path to the STLExamples folder (defaults to "STLExamples") and optional path of a PNG file
+     *             to write the last frame of the demo scene into
+     * @throws IOException if the example STL file can't be read or the PNG file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        Path stlFolder = Path.of(args.length >= 1 ? args[0] : "STLExamples");
+        SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT);
+
+        Random random = new Random(42);
+        float[] coordinates = new float[LINES * 4];
+        int[] colors = new int[LINES];
+        float[] weights = new float[LINES];
+        for (int i = 0; i < LINES; i++) {
+            coordinates[4*i] = random.nextFloat() * (WIDTH - 1);
+            coordinates[4*i+1] = random.nextFloat() * (HEIGHT - 1);
+            coordinates[4*i+2] = Math.min(Math.max(coordinates[4*i] + (random.nextFloat() * 2 - 1) * MAX_LINE_SIZE, 0), WIDTH - 1);
+            coordinates[4*i+3] = Math.min(Math.max(coordinates[4*i+1] + (random.nextFloat() * 2 - 1) * MAX_LINE_SIZE, 0), HEIGHT - 1);
+            colors[i] = 0xff000000 | random.nextInt(0x1000000);
+            weights[i] = (i % 4 == 0) ? 3 : 1;
+        }
+
+        World world = new World(renderer);
+        world.addObject(new Box(new float[]{0, -0.5f, 0}, new float[]{0,0,0}, new float[]{1,1,1}));
+        world.addObject(new Bench(new float[]{0, 0, -1}, new float[]{0,0,0}, new float[]{1f,1f,1f}));
+        world.addObject(new NestedLines(new float[]{0, 0, 1}, new float[]{0,0,0}, new float[]{1f,1f,1f}, 5));
+        world.addObject(new NestedPyramid(new float[]{0, 0, 2}, new float[]{0,0,0}, new float[]{.5f,.5f,.5f}, 5, (float)(Math.PI/6)));
+        world.addObject(new STLObject(new float[]{-2,-0.5f,0}, new float[]{(float)Math.PI/2,0,0}, new float[]{1,1,1}, stlFolder.resolve("Globe.stl"), true));
+        Camera camera = new Camera(new float[]{0.3f, -0.8f, -3.5f}, new float[]{0.2f, 0.2f, 0});
+
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            boolean measure = round >= ROUNDS;
+
+            long start = System.nanoTime();
+            renderer.lines(coordinates, colors, weights, LINES);
+            long linesTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                renderer.clear(0xff000000);
+                world.draw(camera, -1, World.DrawOrder.SORT_EDGES);
+            }
+            long framesTime = System.nanoTime() - start;
+
+            if (measure) {
+                System.out.printf("random lines: %.2f million lines/s, demo scene: %.2f ms/frame%n",
+                        LINES * 1e3 / linesTime, framesTime / 1e6 / FRAMES);
+            }
+        }
+
+        if (args.length >= 2) renderer.writePNG(Path.of(args[1]));
+    }
+}
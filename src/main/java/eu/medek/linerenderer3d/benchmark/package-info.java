@@ -0,0 +1,4 @@
+/**
+ * Small standalone programs for checking performance characteristics of the renderer.
+ */
+package eu.medek.linerenderer3d.benchmark;
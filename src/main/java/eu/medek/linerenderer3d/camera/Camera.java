@@ -51,6 +51,30 @@ public class Camera {
         return Matrix3D.multiply(Matrix3D.getRotateX(-rotation[0]), Matrix3D.getRotateY(-rotation[1]), Matrix3D.getRotateZ(-rotation[2]), Matrix3D.getTranslate(-position[0], -position[1], -position[2]));
     }
 
+    /**
+     * Calculate transformation matrix from world coordinates into camera coordinates without allocating. The result is
+     * the same as the one of {@link #calculateToCameraMatrix()}, but it is written into a supplied 4x4 matrix.
+     * @param result matrix to write the transformation into
+     * @return the result matrix (for chain operations)
+     */
+    public float[][] calculateToCameraMatrix(float[][] result) {
+        float ca = (float)Math.cos(-rotation[0]), sa = (float)Math.sin(-rotation[0]);
+        float cb = (float)Math.cos(-rotation[1]), sb = (float)Math.sin(-rotation[1]);
+        float cc = (float)Math.cos(-rotation[2]), sc = (float)Math.sin(-rotation[2]);
+
+        // rotateX(-rx) * rotateY(-ry) * rotateZ(-rz) multiplied out
+        result[0][0] = cb*cc;           result[0][1] = -cb*sc;          result[0][2] = sb;
+        result[1][0] = ca*sc + sa*sb*cc; result[1][1] = ca*cc - sa*sb*sc; result[1][2] = -sa*cb;
+        result[2][0] = sa*sc - ca*sb*cc; result[2][1] = sa*cc + ca*sb*sc; result[2][2] = ca*cb;
+
+        // followed by translate(-position)
+        for (int i = 0; i < 3; i++)
+            result[i][3] = -(result[i][0]*position[0] + result[i][1]*position[1] + result[i][2]*position[2]);
+        result[3][0] = 0; result[3][1] = 0; result[3][2] = 0; result[3][3] = 1;
+
+        return result;
+    }
+
     /**
      * Calculate where does a certain vector rotate. Useful for finding forward, up and right vectors of the Camera.
      * @param forward input Vector in world coordinates
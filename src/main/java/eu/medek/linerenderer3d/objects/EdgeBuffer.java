@@ -0,0 +1,227 @@
+package eu.medek.linerenderer3d.objects;
+
+import eu.medek.linerenderer3d.system.Color;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of edges packed into a single int array with a fixed stride of {@link #STRIDE} values per edge -
+ * [from, to, color, weight]. Every edge has all four values, edges without their own color or weight get
+ * {@link #DEFAULT_COLOR} and {@link #NO_WEIGHT}, so consumers never have to branch on the format of an edge and there
+ * are no per-edge objects on the heap.
+ * <br>
+ * This is the format in which {@link Object3D} passes its edges to the {@link eu.medek.linerenderer3d.World World}.
+ * The legacy format of {@link Object3D#getEdges()} (arrays of length 2, 3 or 4) can be converted using
+ * {@link #of(int[][])} and {@link #toArrays()}.
+ */
+public class EdgeBuffer {
+    /**
+     * Number of ints per edge.
+     */
+    public static final int STRIDE = 4;
+
+    /**
+     * Offsets of the individual values of an edge in {@link #getData()}.
+     */
+    public static final int FROM = 0, TO = 1, COLOR = 2, WEIGHT = 3;
+
+    /**
+     * Color of edges that don't specify their own color (white).
+     */
+    public static final int DEFAULT_COLOR = Color.fromRGB(255, 255, 255);
+
+    /**
+     * Weight of edges that don't specify their own weight. Such edges are drawn with stroke weight 1 regardless of
+     * their distance from the camera. It is a NaN bit pattern, so it can't clash with a real weight stored using
+     * {@link Float#floatToIntBits}.
+     */
+    public static final int NO_WEIGHT = 0xffffffff;
+
+    /**
+     * Packed edges, {@link #STRIDE} values per edge, valid up to {@link #size} edges.
+     */
+    private int[] data;
+
+    /**
+     * Number of edges in the buffer.
+     */
+    private int size = 0;
+
+    /**
+     * Create an empty buffer.
+     */
+    public EdgeBuffer() {
+        this(16);
+    }
+
+    /**
+     * Create an empty buffer with space for the given number of edges.
+     * @param capacity number of edges that can be added without a reallocation
+     */
+    public EdgeBuffer(int capacity) {
+        data = new int[Math.max(capacity, 1) * STRIDE];
+    }
+
+    /**
+     * Convert edges in the legacy format of {@link Object3D#getEdges()} - [from, to], [from, to, color] or
+     * [from, to, color, weight].
+     * @param edges edges in the legacy format
+     * @return new buffer containing the edges
+     */
+    public static EdgeBuffer of(int[][] edges) {
+        EdgeBuffer buffer = new EdgeBuffer(edges.length);
+        for (int[] edge : edges) {
+            buffer.addPacked(edge[0], edge[1], (edge.length >= 3) ? edge[2] : DEFAULT_COLOR,
+                    (edge.length >= 4) ? edge[3] : NO_WEIGHT);
+        }
+        return buffer;
+    }
+
+    /**
+     * Convert the edges into the legacy format of {@link Object3D#getEdges()}. Color and weight are only included
+     * when they differ from the defaults.
+     * @return new arrays with the edges
+     */
+    public int[][] toArrays() {
+        int[][] edges = new int[size][];
+        for (int i = 0, offset = 0; i < size; i++, offset += STRIDE) {
+            if (data[offset + WEIGHT] != NO_WEIGHT) edges[i] = Arrays.copyOfRange(data, offset, offset + 4);
+            else if (data[offset + COLOR] != DEFAULT_COLOR) edges[i] = Arrays.copyOfRange(data, offset, offset + 3);
+            else edges[i] = Arrays.copyOfRange(data, offset, offset + 2);
+        }
+        return edges;
+    }
+
+    /**
+     * Make sure there is space for at least additional edges without another reallocation.
+     * @param additional number of edges that are going to be added
+     */
+    public void ensureCapacity(int additional) {
+        long required = (long)(size + additional) * STRIDE;
+        if (required <= data.length) return;
+        long capacity = data.length;
+        while (capacity < required) capacity *= 2;
+        data = Arrays.copyOf(data, (int)Math.min(capacity, Integer.MAX_VALUE - 8));
+    }
+
+    /**
+     * Add an edge with the default color and weight.
+     * @param from index of the first vertex
+     * @param to index of the second vertex
+     */
+    public void add(int from, int to) {
+        addPacked(from, to, DEFAULT_COLOR, NO_WEIGHT);
+    }
+
+    /**
+     * Add an edge with the default weight.
+     * @param from index of the first vertex
+     * @param to index of the second vertex
+     * @param color color of the edge in the {@link Color} format
+     */
+    public void add(int from, int to, int color) {
+        addPacked(from, to, color, NO_WEIGHT);
+    }
+
+    /**
+     * Add an edge.
+     * @param from index of the first vertex
+     * @param to index of the second vertex
+     * @param color color of the edge in the {@link Color} format
+     * @param weight stroke weight of the edge at distance 1 from the camera
+     */
+    public void add(int from, int to, int color, float weight) {
+        addPacked(from, to, color, Float.floatToIntBits(weight));
+    }
+
+    /**
+     * Add an edge with the weight already stored as an int.
+     * @param from index of the first vertex
+     * @param to index of the second vertex
+     * @param color color of the edge in the {@link Color} format
+     * @param weightBits weight stored using {@link Float#floatToIntBits} or {@link #NO_WEIGHT}
+     */
+    public void addPacked(int from, int to, int color, int weightBits) {
+        ensureCapacity(1);
+        int offset = size * STRIDE;
+        data[offset + FROM] = from;
+        data[offset + TO] = to;
+        data[offset + COLOR] = color;
+        data[offset + WEIGHT] = weightBits;
+        size++;
+    }
+
+    /**
+     * Add all edges of another buffer, shifting their vertex indices.
+     * @param edges edges to add
+     * @param vertexOffset number added to the vertex indices of the added edges
+     */
+    public void addAll(EdgeBuffer edges, int vertexOffset) {
+        ensureCapacity(edges.size);
+        int offset = size * STRIDE, length = edges.size * STRIDE;
+        System.arraycopy(edges.data, 0, data, offset, length);
+        if (vertexOffset != 0) {
+            for (int i = offset; i < offset + length; i += STRIDE) {
+                data[i + FROM] += vertexOffset;
+                data[i + TO] += vertexOffset;
+            }
+        }
+        size += edges.size;
+    }
+
+    /**
+     * Remove all edges, keeping the allocated space.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of edges in the buffer
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param edge index of the edge
+     * @return index of the first vertex of the edge
+     */
+    public int getFrom(int edge) {
+        return data[edge * STRIDE + FROM];
+    }
+
+    /**
+     * @param edge index of the edge
+     * @return index of the second vertex of the edge
+     */
+    public int getTo(int edge) {
+        return data[edge * STRIDE + TO];
+    }
+
+    /**
+     * @param edge index of the edge
+     * @return color of the edge in the {@link Color} format
+     */
+    public int getColor(int edge) {
+        return data[edge * STRIDE + COLOR];
+    }
+
+    /**
+     * @param edge index of the edge
+     * @return weight of the edge stored using {@link Float#floatToIntBits} or {@link #NO_WEIGHT}
+     */
+    public int getWeightBits(int edge) {
+        return data[edge * STRIDE + WEIGHT];
+    }
+
+    /**
+     * Get the backing array, edge i occupies [i*{@link #STRIDE}, (i+1)*{@link #STRIDE}) with the values at offsets
+     * {@link #FROM}, {@link #TO}, {@link #COLOR} and {@link #WEIGHT}. Values after {@link #size()} edges are
+     * unspecified.
+     * @return backing array, modifying it modifies the buffer
+     */
+    public int[] getData() {
+        return data;
+    }
+}
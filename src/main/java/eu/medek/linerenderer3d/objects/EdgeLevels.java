@@ -0,0 +1,206 @@
+package eu.medek.linerenderer3d.objects;
+
+import eu.medek.linerenderer3d.system.LongIntHashMap;
+import eu.medek.linerenderer3d.system.Vector;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Chain of progressively simplified versions (levels of detail) of the edges of a mesh, used to draw the mesh with
+ * fewer edges when it covers only a small part of the window.
+ * <br>
+ * Levels are created by vertex clustering - the bounding box of the mesh is divided into a grid of
+ * {@link Level#getResolution() resolution} cells along its longest side and all vertices in a cell are merged into one
+ * of them. Edges are moved to the merged vertices, edges collapsed into a single vertex and duplicate edges are removed.
+ * Every level halves the resolution of the previous one. Merged vertices are always original vertices of the mesh, so
+ * the edges of all levels can be drawn using the same transformed vertices as the full mesh.
+ * <br>
+ * Levels are built on a background thread the first time they're requested, until then {@link #getLevels()} returns
+ * null and the full mesh should be drawn instead.
+ */
+public class EdgeLevels {
+    /**
+     * Resolution of the finest level.
+     */
+    public static final int MAX_RESOLUTION = 512;
+
+    /**
+     * Resolution of the coarsest level.
+     */
+    public static final int MIN_RESOLUTION = 4;
+
+    /**
+     * Executor building the levels of all meshes, one at a time on a single daemon thread.
+     */
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "EdgeLevels builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * One simplified version of the edges.
+     */
+    public static class Level {
+        /**
+         * Number of grid cells along the longest side of the bounding box.
+         */
+        private final int resolution;
+
+        /**
+         * Simplified edges, vertex indices refer to the original vertices.
+         */
+        private final EdgeBuffer edges;
+
+        /**
+         * Indices of the original vertices used by {@link #edges}.
+         */
+        private final int[] vertices;
+
+        /**
+         * @param resolution number of grid cells along the longest side of the bounding box
+         * @param edges simplified edges
+         * @param vertices indices of the vertices used by the edges
+         */
+        Level(int resolution, EdgeBuffer edges, int[] vertices) {
+            this.resolution = resolution;
+            this.edges = edges;
+            this.vertices = vertices;
+        }
+
+        /**
+         * @return number of grid cells along the longest side of the bounding box of the mesh, the level is suitable
+         * for drawing the mesh when one cell covers at most a pixel or two
+         */
+        public int getResolution() {
+            return resolution;
+        }
+
+        /**
+         * @return simplified edges with indices of the original vertices, don't modify them
+         */
+        public EdgeBuffer getEdges() {
+            return edges;
+        }
+
+        /**
+         * @return indices of the original vertices used by the edges, don't modify them
+         */
+        public int[] getVertices() {
+            return vertices;
+        }
+    }
+
+    /**
+     * Local vertices of the mesh.
+     */
+    private final Vector[] vertices;
+
+    /**
+     * Edges of the mesh.
+     */
+    private final EdgeBuffer edges;
+
+    /**
+     * Built levels from the finest to the coarsest, null until they're built.
+     */
+    private volatile Level[] levels = null;
+
+    /**
+     * True after the build was started.
+     */
+    private boolean requested = false;
+
+    /**
+     * Create the chain for a mesh. Levels aren't built until they're requested using {@link #getLevels()}.
+     * @param vertices local vertices of the mesh, they must not change afterwards
+     * @param edges edges of the mesh, they must not change afterwards
+     */
+    public EdgeLevels(Vector[] vertices, EdgeBuffer edges) {
+        this.vertices = vertices;
+        this.edges = edges;
+    }
+
+    /**
+     * Get the levels, starting their build on the background thread during the first call. Should be called from a
+     * single thread (the one drawing the scene).
+     * @return levels from the finest to the coarsest (with decreasing {@link Level#getResolution() resolution}), null
+     * if they aren't built yet
+     */
+    public Level[] getLevels() {
+        Level[] built = levels;
+        if (built == null && !requested) {
+            requested = true;
+            BUILDER.execute(() -> levels = build());
+        }
+        return built;
+    }
+
+    /**
+     * Build all levels. Levels that wouldn't remove at least an eighth of the edges of the finer level are skipped.
+     * @return levels from the finest to the coarsest
+     */
+    private Level[] build() {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (Vector v : vertices) {
+            minX = Math.min(minX, v.x); minY = Math.min(minY, v.y); minZ = Math.min(minZ, v.z);
+            maxX = Math.max(maxX, v.x); maxY = Math.max(maxY, v.y); maxZ = Math.max(maxZ, v.z);
+        }
+        float size = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+
+        ArrayList<Level> result = new ArrayList<>();
+        int previousEdges = edges.size();
+        for (int resolution = MAX_RESOLUTION; resolution >= MIN_RESOLUTION && size > 0; resolution /= 2) {
+            Level level = buildLevel(resolution, size / resolution, minX, minY, minZ);
+            if (level.edges.size() > previousEdges - previousEdges / 8) continue;
+            result.add(level);
+            previousEdges = level.edges.size();
+        }
+        return result.toArray(new Level[0]);
+    }
+
+    /**
+     * Build one level by clustering the vertices in a grid.
+     * @param resolution number of cells along the longest side of the bounding box
+     * @param cellSize size of a cell
+     * @param minX minimum x coordinate of the vertices
+     * @param minY minimum y coordinate of the vertices
+     * @param minZ minimum z coordinate of the vertices
+     * @return the level
+     */
+    private Level buildLevel(int resolution, float cellSize, float minX, float minY, float minZ) {
+        // the first vertex in each cell represents the whole cell
+        LongIntHashMap cells = new LongIntHashMap(vertices.length);
+        int[] representative = new int[vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            Vector v = vertices[i];
+            long cx = Math.min((long)((v.x - minX) / cellSize), resolution);
+            long cy = Math.min((long)((v.y - minY) / cellSize), resolution);
+            long cz = Math.min((long)((v.z - minZ) / cellSize), resolution);
+            int first = cells.putIfAbsent((cx << 42) | (cy << 21) | cz, i);
+            representative[i] = (first != LongIntHashMap.MISSING) ? first : i;
+        }
+
+        EdgeBuffer levelEdges = new EdgeBuffer();
+        // edges between the same representatives (in either direction) are stored only once
+        LongIntHashMap seen = new LongIntHashMap(edges.size());
+        boolean[] used = new boolean[vertices.length];
+        int usedCount = 0;
+        for (int i = 0; i < edges.size(); i++) {
+            int from = representative[edges.getFrom(i)], to = representative[edges.getTo(i)];
+            if (from == to) continue;
+            long key = ((long)Math.min(from, to) << 32) | Math.max(from, to);
+            if (seen.putIfAbsent(key, i) != LongIntHashMap.MISSING) continue;
+            levelEdges.addPacked(from, to, edges.getColor(i), edges.getWeightBits(i));
+            if (!used[from]) { used[from] = true; usedCount++; }
+            if (!used[to]) { used[to] = true; usedCount++; }
+        }
+
+        int[] levelVertices = new int[usedCount];
+        for (int i = 0, j = 0; i < used.length; i++) if (used[i]) levelVertices[j++] = i;
+        return new Level(resolution, levelEdges, levelVertices);
+    }
+}
@@ -0,0 +1,105 @@
+package eu.medek.linerenderer3d.objects;
+
+/**
+ * View of the edges of an {@link Object3D} and all its nested objects without copying them. The view references the
+ * object's own {@link EdgeBuffer} and the views of the nested objects, each with the offset of its vertices in the
+ * array returned by {@link Object3D#calculateWorldVertices}. Every edge is stored only once, in the buffer of the
+ * object it belongs to, so memory used by views grows linearly with the number of objects, regardless of the depth
+ * of the hierarchy.
+ * <br>
+ * Edges are visited in the same order as the vertices - edges of the nested objects first, then the object's own
+ * edges.
+ */
+public class EdgeView {
+    /**
+     * Consumer of consecutive edges visited by {@link #forEachSegment}.
+     */
+    @FunctionalInterface
+    public interface SegmentConsumer {
+        /**
+         * Process a segment of edges.
+         * @param edges edges of one object, don't modify them
+         * @param vertexOffset number that has to be added to the vertex indices of the edges to get indices in the
+         *                     vertices of the viewed hierarchy
+         */
+        void accept(EdgeBuffer edges, int vertexOffset);
+    }
+
+    /**
+     * Own edges of the object.
+     */
+    private final EdgeBuffer edges;
+
+    /**
+     * Offset of the object's own vertices.
+     */
+    private final int edgesVertexOffset;
+
+    /**
+     * Views of the nested objects.
+     */
+    private final EdgeView[] children;
+
+    /**
+     * Offset of the vertices of each nested object.
+     */
+    private final int[] childVertexOffsets;
+
+    /**
+     * Number of edges in the view.
+     */
+    private final int size;
+
+    /**
+     * Create a view.
+     * @param edges own edges of the object
+     * @param edgesVertexOffset offset of the object's own vertices
+     * @param children views of the nested objects
+     * @param childVertexOffsets offset of the vertices of each nested object
+     */
+    EdgeView(EdgeBuffer edges, int edgesVertexOffset, EdgeView[] children, int[] childVertexOffsets) {
+        this.edges = edges;
+        this.edgesVertexOffset = edgesVertexOffset;
+        this.children = children;
+        this.childVertexOffsets = childVertexOffsets;
+
+        int count = edges.size();
+        for (EdgeView child : children) count += child.size;
+        this.size = count;
+    }
+
+    /**
+     * @return the number of edges in the view
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visit all edges in the view, one object at a time, without copying them.
+     * @param consumer consumer called for the edges of every object with at least one edge
+     */
+    public void forEachSegment(SegmentConsumer consumer) {
+        forEachSegment(consumer, 0);
+    }
+
+    /**
+     * Visit all edges in the view with an additional vertex offset.
+     * @param consumer consumer called for the edges of every object with at least one edge
+     * @param vertexOffset offset added to the offsets of all objects
+     */
+    private void forEachSegment(SegmentConsumer consumer, int vertexOffset) {
+        for (int i = 0; i < children.length; i++) children[i].forEachSegment(consumer, vertexOffset + childVertexOffsets[i]);
+        if (edges.size() > 0) consumer.accept(edges, vertexOffset + edgesVertexOffset);
+    }
+
+    /**
+     * Copy all edges in the view into a single buffer.
+     * @return new buffer with the edges, vertex indices refer to the vertices of the viewed hierarchy
+     */
+    public EdgeBuffer toBuffer() {
+        EdgeBuffer buffer = new EdgeBuffer(size);
+        forEachSegment(buffer::addAll);
+        return buffer;
+    }
+}
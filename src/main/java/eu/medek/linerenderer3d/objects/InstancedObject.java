@@ -0,0 +1,80 @@
+package eu.medek.linerenderer3d.objects;
+
+import eu.medek.linerenderer3d.system.Vector;
+
+/**
+ * Object displaying a shared {@link Mesh} with its own position, rotation and scale. Any number of instances can use
+ * the same mesh - when added directly to the {@link eu.medek.linerenderer3d.World World}, the edges of the mesh are
+ * stored only once and each instance only stores its transformed vertices. Instances don't have nested objects.
+ */
+public class InstancedObject extends Object3D {
+    /**
+     * Nested objects of every instance (there are none), shared so that {@link #getNestedAbstract()} doesn't allocate.
+     */
+    private static final Object3D[] NO_NESTED = new Object3D[0];
+
+    /**
+     * Shared geometry of the instance.
+     */
+    private final Mesh mesh;
+
+    /**
+     * Constructor for an instance of a mesh.
+     * @param mesh shared geometry of the instance
+     * @see Object3D#Object3D(float[], float[], float[])
+     */
+    public InstancedObject(float[] position, float[] rotation, float[] scale, Mesh mesh) {
+        super(position, rotation, scale);
+        this.mesh = mesh;
+    }
+
+    /**
+     * Get the geometry of the instance.
+     * @return shared geometry of the instance
+     */
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Vector[] getVertices() {
+        return mesh.getVertices();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[][] getEdges() {
+        return mesh.getEdges();
+    }
+
+    /**
+     * Edges of the mesh are returned directly, without making a copy.
+     * @return edges of the mesh, don't modify them
+     */
+    @Override
+    public EdgeBuffer getEdgeBuffer() {
+        return mesh.getEdgeBuffer();
+    }
+
+    /**
+     * Instances don't have nested objects, so edges of the mesh are returned directly, without making a copy.
+     * @return edges of the mesh, don't modify them
+     */
+    @Override
+    public EdgeBuffer getEdgeBufferAll() {
+        return mesh.getEdgeBuffer();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Object3D[] getNestedAbstract() {
+        return NO_NESTED;
+    }
+}
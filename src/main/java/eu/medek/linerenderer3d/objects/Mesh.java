@@ -0,0 +1,127 @@
+package eu.medek.linerenderer3d.objects;
+
+import eu.medek.linerenderer3d.system.Vector;
+
+/**
+ * Immutable vertices and edges that can be shared by many {@link InstancedObject instances}. Arrays are copied when the
+ * mesh is created, so later changes of the source arrays don't affect it.
+ */
+public class Mesh {
+    /**
+     * Local vertices of the mesh.
+     */
+    private final Vector[] vertices;
+
+    /**
+     * Edges of the mesh.
+     */
+    private final EdgeBuffer edges;
+
+    /**
+     * Bounding sphere of the vertices [x, y, z, radius] in local space, radius is negative for a mesh without
+     * vertices.
+     */
+    private final float[] boundingSphere = new float[4];
+
+    /**
+     * Create a mesh from vertices and edges.
+     * @param vertices local vertices
+     * @param edges edges in the same format as {@link Object3D#getEdges()} - [from, to] or [from, to, color] or
+     *              [from, to, color, weight]
+     */
+    public Mesh(Vector[] vertices, int[][] edges) {
+        this(vertices, EdgeBuffer.of(edges));
+    }
+
+    /**
+     * Create a mesh from vertices and packed edges.
+     * @param vertices local vertices
+     * @param edges edges of the mesh
+     */
+    public Mesh(Vector[] vertices, EdgeBuffer edges) {
+        this.vertices = new Vector[vertices.length];
+        for (int i = 0; i < vertices.length; i++) this.vertices[i] = new Vector(vertices[i]);
+
+        for (int i = 0; i < edges.size(); i++) {
+            if (edges.getFrom(i) < 0 || edges.getFrom(i) >= vertices.length || edges.getTo(i) < 0 || edges.getTo(i) >= vertices.length)
+                throw new IllegalArgumentException("Edge " + i + " references a vertex that doesn't exist.");
+        }
+        this.edges = new EdgeBuffer(edges.size());
+        this.edges.addAll(edges, 0);
+
+        calculateBoundingSphere();
+    }
+
+    /**
+     * Create a mesh from the world vertices and all edges of an object (including nested objects). The transformation
+     * of the object itself is part of the mesh, so the object should usually have zero position and rotation and
+     * unit scale.
+     * @param object object to copy the geometry from
+     * @return mesh with the geometry of the object
+     */
+    public static Mesh of(Object3D object) {
+        return new Mesh(object.calculateWorldVertices(), object.getEdgeBufferAll());
+    }
+
+    /**
+     * Get the vertices of the mesh.
+     * @return local vertices, don't modify them
+     */
+    public Vector[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * Get the edges of the mesh in the legacy format.
+     * @return new arrays with the edges in the same format as {@link Object3D#getEdges()}
+     */
+    public int[][] getEdges() {
+        return edges.toArrays();
+    }
+
+    /**
+     * Get the edges of the mesh.
+     * @return edges of the mesh, don't modify them
+     */
+    public EdgeBuffer getEdgeBuffer() {
+        return edges;
+    }
+
+    /**
+     * Get the bounding sphere of the mesh in local space.
+     * @return bounding sphere [x, y, z, radius], radius is negative for a mesh without vertices, don't modify it
+     */
+    public float[] getBoundingSphere() {
+        return boundingSphere;
+    }
+
+    /**
+     * Calculate {@link #boundingSphere} - sphere centered at the center of the bounding box of the vertices.
+     */
+    private void calculateBoundingSphere() {
+        if (vertices.length == 0) {
+            boundingSphere[3] = -1;
+            return;
+        }
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (Vector v : vertices) {
+            minX = Math.min(minX, v.x); minY = Math.min(minY, v.y); minZ = Math.min(minZ, v.z);
+            maxX = Math.max(maxX, v.x); maxY = Math.max(maxY, v.y); maxZ = Math.max(maxZ, v.z);
+        }
+
+        float centerX = (minX + maxX) / 2, centerY = (minY + maxY) / 2, centerZ = (minZ + maxZ) / 2;
+        float radiusSq = 0;
+        for (Vector v : vertices) {
+            float dx = v.x - centerX, dy = v.y - centerY, dz = v.z - centerZ;
+            radiusSq = Math.max(radiusSq, dx*dx + dy*dy + dz*dz);
+        }
+
+        boundingSphere[0] = centerX;
+        boundingSphere[1] = centerY;
+        boundingSphere[2] = centerZ;
+        // small margin for rounding errors, so that vertices on the surface are always inside
+        boundingSphere[3] = (float)Math.sqrt(radiusSq) * 1.0001f + 1e-6f;
+    }
+}
@@ -1,11 +1,8 @@
 package eu.medek.linerenderer3d.objects;
 
 import eu.medek.linerenderer3d.system.Matrix3D;
-import eu.medek.linerenderer3d.system.Pair;
 import eu.medek.linerenderer3d.system.Vector;
 
-import java.util.ArrayList;
-
 /**
  * Class representing a displayable 3D object.
  */
@@ -31,15 +28,102 @@ public abstract class Object3D {
 
     /**
      * Precalculated world vertices of this object. If object doesn't move between frames, there is no need to
-     * recalculate world vertices.
+     * recalculate world vertices. The array and its vectors are reused when only transformations change.
      */
     private Vector[] precalculatedVertices = null;
 
     /**
-     * Edges of this object and all nested objects. Will be calculated during the first call to {@link #getEdgesAll}
-     * function.
+     * True if some of the {@link #precalculatedVertices} need to be recalculated.
+     */
+    private boolean precalculatedVerticesDirty = true;
+
+    /**
+     * Incremented every time the transformation or the vertices of this object (not including nested objects)
+     * change. Used by the ancestors' {@link #flatVersions} to find out which parts of the hierarchy need recalculating.
+     */
+    private long localVersion = 0;
+
+    /**
+     * Cached local-to-parent transformation matrix, null if it needs to be recalculated.
+     */
+    private float[][] localMatrix = null;
+
+    /**
+     * This object and all nested objects in parent-before-child order, used to calculate
+     * {@link #precalculatedVertices} in a single linear pass. Null if it needs to be rebuilt (after the number of
+     * vertices of any object in the hierarchy changed).
      */
-    private int[][] precalculatedAllEdges = null;
+    private Object3D[] flatNodes = null;
+
+    /**
+     * Index of the parent of each object in {@link #flatNodes} (-1 for this object).
+     */
+    private int[] flatParents;
+
+    /**
+     * Index of the first own vertex of each object in {@link #flatNodes} in {@link #precalculatedVertices}.
+     */
+    private int[] flatVertexStarts;
+
+    /**
+     * Transformation from the local space of each object in {@link #flatNodes} to the space of
+     * {@link #precalculatedVertices}.
+     */
+    private float[][][] flatMatrices;
+
+    /**
+     * {@link #localVersion} of each object in {@link #flatNodes} for which its part of {@link #flatMatrices} and
+     * {@link #precalculatedVertices} was calculated.
+     */
+    private long[] flatVersions;
+
+    /**
+     * Scratch array for {@link #calculateWorldVertices} - true for each object in {@link #flatNodes} that got
+     * recalculated in the current pass.
+     */
+    private boolean[] flatChanged;
+
+    /**
+     * Edges of this object (not including nested objects) converted from {@link #getEdges()} by the default
+     * implementation of {@link #getEdgeBuffer()}.
+     */
+    private EdgeBuffer localEdgeBuffer = null;
+
+    /**
+     * View of the edges of this object and all nested objects. Will be created during the first call to
+     * {@link #getEdgeViewAll} function.
+     */
+    private EdgeView precalculatedAllEdges = null;
+
+    /**
+     * Number of vertices of this object and all nested objects, -1 if not calculated yet.
+     */
+    private int vertexCountAll = -1;
+
+    /**
+     * Incremented every time the world vertices of this object change - after a change of the transformation or the
+     * vertices of this object or any nested object. Version of the topmost ancestor is used to check whether bounding
+     * spheres are up to date.
+     */
+    private long vertexCacheVersion = 0;
+
+    /**
+     * Incremented every time {@link #invalidateVertexCache} is called on this object or any nested object - that is
+     * whenever the number of vertices or the edges of the hierarchy may have changed, not just the positions of
+     * vertices.
+     */
+    private long structureVersion = 0;
+
+    /**
+     * Bounding sphere of this object and all nested objects [x, y, z, radius] in the space of the world vertices of
+     * the topmost ancestor (see {@link #getBoundingSphere}).
+     */
+    private float[] boundingSphere = null;
+
+    /**
+     * Version of the topmost ancestor's vertex cache for which {@link #boundingSphere} was calculated.
+     */
+    private long boundingSphereVersion = -1;
 
     /**
      * Constructor for a displayable 3D object.
@@ -68,10 +152,45 @@ public abstract class Object3D {
 
     /**
      * Getter for this object's edges (not including nested objects!). This method always has to return same values!
+     * Each edge is [from, to], [from, to, color] or [from, to, color, weight] with the weight stored using
+     * {@link Float#floatToIntBits}. This is the legacy format, the edges are read through {@link #getEdgeBuffer()}.
      * @return edges of this object
      */
     public abstract int[][] getEdges();
 
+    /**
+     * Getter for this object's edges (not including nested objects!) in the packed format. The default implementation
+     * converts the result of {@link #getEdges()} once and caches it until {@link #invalidateVertexCache} gets called,
+     * objects with many edges should override it and build the buffer directly. This method always has to return same
+     * values!
+     * @return edges of this object, don't modify them
+     */
+    public EdgeBuffer getEdgeBuffer() {
+        if (localEdgeBuffer == null) localEdgeBuffer = EdgeBuffer.of(getEdges());
+        return localEdgeBuffer;
+    }
+
+    /**
+     * Get simplified versions of this object's edges used by the {@link eu.medek.linerenderer3d.World World} instead of
+     * the full edges when the object covers only a small part of the window. Only used for objects without nested
+     * objects added directly to the world.
+     * @return levels of detail of this object's edges, null if it doesn't have any (the default)
+     */
+    public EdgeLevels getEdgeLevels() {
+        return null;
+    }
+
+    /**
+     * Get the triangle adjacency used by the {@link eu.medek.linerenderer3d.World World} to draw only the outline of
+     * this object (its silhouette and feature edges for the current camera position) instead of all its edges. Takes
+     * precedence over {@link #getEdgeLevels()}. Only used for objects without nested objects added directly to the
+     * world.
+     * @return silhouette edges of this object, null if it should be drawn with its edges (the default)
+     */
+    public SilhouetteEdges getSilhouetteEdges() {
+        return null;
+    }
+
     /**
      * Get this object's nested objects. This method always has to return same values! This method exists only to be
      * implemented by subclasses - always call {@link #getNested()} instead!
@@ -132,7 +251,7 @@ public abstract class Object3D {
      */
     public void setPosition(int id, float value) {
         position[id] = value;
-        invalidateVertexCache();
+        invalidateTransform();
     }
 
     /**
@@ -143,7 +262,7 @@ public abstract class Object3D {
      */
     public void setRotation(int id, float value) {
         rotation[id] = value;
-        invalidateVertexCache();
+        invalidateTransform();
     }
 
     /**
@@ -154,15 +273,150 @@ public abstract class Object3D {
      */
     public void setScale(int id, float value) {
         scale[id] = value;
-        invalidateVertexCache();
+        invalidateTransform();
     }
 
     /**
-     * Invalidate cached values for world vertices. Recursively calls itself on parent.
+     * Invalidate cached values for world vertices and edges. Has to be called whenever the vertices or edges of this
+     * object change (their number included). Invalidates the caches of all ancestors as well.
      */
     public void invalidateVertexCache() {
-        precalculatedVertices = null;
-        if (parent != null) parent.invalidateVertexCache();
+        localVersion++;
+        localEdgeBuffer = null;
+        for (Object3D node = this; node != null; node = node.parent) {
+            node.precalculatedVerticesDirty = true;
+            node.precalculatedAllEdges = null;
+            node.vertexCountAll = -1;
+            node.flatNodes = null;
+            node.vertexCacheVersion++;
+            node.structureVersion++;
+        }
+    }
+
+    /**
+     * Invalidate cached values after the position, rotation or scale of this object changed. Unlike
+     * {@link #invalidateVertexCache}, the layout of the cached world vertices stays the same, so the ancestors only
+     * recalculate the part of their world vertices belonging to this object and its nested objects.
+     */
+    private void invalidateTransform() {
+        localVersion++;
+        localMatrix = null;
+        for (Object3D node = this; node != null; node = node.parent) {
+            node.precalculatedVerticesDirty = true;
+            node.vertexCacheVersion++;
+        }
+    }
+
+    /**
+     * Get the version of the world vertices - it changes every time the result of {@link #calculateWorldVertices}
+     * changes, so users caching the world vertices can find out whether they are still valid.
+     * @return version of the world vertices of this object and all nested objects
+     */
+    public long getVertexCacheVersion() {
+        return vertexCacheVersion;
+    }
+
+    /**
+     * Get the version of the structure - it changes every time {@link #invalidateVertexCache} is called on this
+     * object or any nested object, which means that the number of world vertices or the result of
+     * {@link #getEdgesAll} may have changed. Changes of position, rotation or scale don't change the structure.
+     * @return version of the structure of this object and all nested objects
+     */
+    public long getStructureVersion() {
+        return structureVersion;
+    }
+
+    /**
+     * Get the number of vertices of this object and all nested objects - the length of the array returned by
+     * {@link #calculateWorldVertices}, but without calculating the vertices.
+     * @return number of vertices of this object and all nested objects
+     */
+    public int getVertexCountAll() {
+        if (vertexCountAll == -1) {
+            int count = getVertices().length;
+            for (var child : getNested()) count += child.getVertexCountAll();
+            vertexCountAll = count;
+        }
+        return vertexCountAll;
+    }
+
+    /**
+     * Get the bounding sphere of this object and all nested objects. The sphere is in the space of
+     * {@link #calculateWorldVertices world vertices} of the topmost ancestor - for objects that aren't nested in any
+     * other object (such as the ones added to the World) this is the world space. Spheres of all objects in the
+     * hierarchy are calculated together, bottom-up from the world vertices of the topmost ancestor, and cached until
+     * {@link #invalidateVertexCache} gets called on any object in the hierarchy.
+     * @return bounding sphere [x, y, z, radius], don't modify the array
+     */
+    public float[] getBoundingSphere() {
+        Object3D root = this;
+        while (root.parent != null) root = root.parent;
+
+        if (boundingSphere == null || boundingSphereVersion != root.vertexCacheVersion) {
+            Vector[] worldVertices = root.calculateWorldVertices();
+            root.calculateBoundingSpheres(worldVertices, 0, root.vertexCacheVersion);
+        }
+        return boundingSphere;
+    }
+
+    /**
+     * Calculate bounding spheres of this object and all nested objects. Uses the fact that vertices of each object in
+     * the world vertices array are stored as a contiguous block - nested objects first, own vertices last.
+     * @param worldVertices world vertices of the topmost ancestor
+     * @param offset index of the first vertex of this object in worldVertices
+     * @param version version of the topmost ancestor's vertex cache
+     */
+    private void calculateBoundingSpheres(Vector[] worldVertices, int offset, long version) {
+        Object3D[] nested = getNested();
+        int ownStart = offset;
+        for (var child : nested) {
+            child.calculateBoundingSpheres(worldVertices, ownStart, version);
+            ownStart += child.getVertexCountAll();
+        }
+        int ownEnd = offset + getVertexCountAll();
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = ownStart; i < ownEnd; i++) {
+            Vector v = worldVertices[i];
+            minX = Math.min(minX, v.x); minY = Math.min(minY, v.y); minZ = Math.min(minZ, v.z);
+            maxX = Math.max(maxX, v.x); maxY = Math.max(maxY, v.y); maxZ = Math.max(maxZ, v.z);
+        }
+        for (var child : nested) {
+            float[] sphere = child.boundingSphere;
+            if (sphere[3] < 0) continue;
+            minX = Math.min(minX, sphere[0] - sphere[3]); minY = Math.min(minY, sphere[1] - sphere[3]); minZ = Math.min(minZ, sphere[2] - sphere[3]);
+            maxX = Math.max(maxX, sphere[0] + sphere[3]); maxY = Math.max(maxY, sphere[1] + sphere[3]); maxZ = Math.max(maxZ, sphere[2] + sphere[3]);
+        }
+
+        if (boundingSphere == null) boundingSphere = new float[4];
+        boundingSphereVersion = version;
+        if (minX > maxX) { // no vertices at all - negative radius marks an empty sphere
+            boundingSphere[0] = boundingSphere[1] = boundingSphere[2] = 0;
+            boundingSphere[3] = -1;
+            return;
+        }
+
+        float centerX = (minX + maxX) / 2, centerY = (minY + maxY) / 2, centerZ = (minZ + maxZ) / 2;
+        float radiusSq = 0;
+        for (int i = ownStart; i < ownEnd; i++) {
+            Vector v = worldVertices[i];
+            float dx = v.x - centerX, dy = v.y - centerY, dz = v.z - centerZ;
+            radiusSq = Math.max(radiusSq, dx*dx + dy*dy + dz*dz);
+        }
+        float radius = (float)Math.sqrt(radiusSq);
+        for (var child : nested) {
+            float[] sphere = child.boundingSphere;
+            if (sphere[3] < 0) continue;
+            float dx = sphere[0] - centerX, dy = sphere[1] - centerY, dz = sphere[2] - centerZ;
+            radius = Math.max(radius, (float)Math.sqrt(dx*dx + dy*dy + dz*dz) + sphere[3]);
+        }
+
+        boundingSphere[0] = centerX;
+        boundingSphere[1] = centerY;
+        boundingSphere[2] = centerZ;
+        // small margin for rounding errors, so that vertices on the surface are always inside
+        boundingSphere[3] = radius * 1.0001f + 1e-6f;
     }
 
     /**
@@ -178,20 +432,105 @@ public abstract class Object3D {
      * @return world vertices of this object and all its nested objects
      */
     public Vector[] calculateWorldVertices() {
-        if (precalculatedVertices == null) {
-            ArrayList<Pair<Vector[], float[][]>> allVertices = getVerticesWorldTransform();
-            int verticesCount = 0;
-            for (var pair : allVertices) verticesCount += pair.getFirst().length;
-            precalculatedVertices = new Vector[verticesCount];
-
-            int id = 0;
-            for (var pair : allVertices)
-                for (int i = 0; i < pair.getFirst().length; i++, id++) precalculatedVertices[id] = Matrix3D.toPosition(Matrix3D.multiply(pair.getSecond(), Matrix3D.toVector(pair.getFirst()[i])));
+        if (flatNodes == null) flattenHierarchy();
+        if (!precalculatedVerticesDirty) return precalculatedVertices;
+
+        // parents come before their children, so parent's matrix is always up to date when the child needs it
+        for (int i = 0; i < flatNodes.length; i++) {
+            Object3D node = flatNodes[i];
+            int parentId = flatParents[i];
+            flatChanged[i] = flatVersions[i] != node.localVersion || (parentId != -1 && flatChanged[parentId]);
+            if (!flatChanged[i]) continue;
+
+            if (parentId == -1) {
+                float[][] localMatrix = node.getLocalMatrix();
+                for (int row = 0; row < 4; row++) System.arraycopy(localMatrix[row], 0, flatMatrices[i][row], 0, 4);
+            }
+            else Matrix3D.multiplyInto(flatMatrices[parentId], node.getLocalMatrix(), flatMatrices[i]);
+            transformVertices(node.getVertices(), flatMatrices[i], flatVertexStarts[i]);
+            flatVersions[i] = node.localVersion;
         }
+        precalculatedVerticesDirty = false;
 
         return precalculatedVertices;
     }
 
+    /**
+     * Build {@link #flatNodes} and the arrays belonging to it and allocate {@link #precalculatedVertices}. All world
+     * vertices get calculated in the next call to {@link #calculateWorldVertices}.
+     */
+    private void flattenHierarchy() {
+        int nodeCount = countNodes();
+        flatNodes = new Object3D[nodeCount];
+        flatParents = new int[nodeCount];
+        flatVertexStarts = new int[nodeCount];
+        flatMatrices = new float[nodeCount][4][4];
+        flatVersions = new long[nodeCount];
+        flatChanged = new boolean[nodeCount];
+        flattenNode(this, -1, 0, 0);
+        for (int i = 0; i < nodeCount; i++) flatVersions[i] = flatNodes[i].localVersion - 1;
+
+        precalculatedVertices = new Vector[getVertexCountAll()];
+        for (int i = 0; i < precalculatedVertices.length; i++) precalculatedVertices[i] = new Vector();
+        precalculatedVerticesDirty = true;
+    }
+
+    /**
+     * Count this object and all nested objects (recursively).
+     * @return number of objects in the hierarchy starting at this object
+     */
+    private int countNodes() {
+        int count = 1;
+        for (var child : getNested()) count += child.countNodes();
+        return count;
+    }
+
+    /**
+     * Store the object and all its nested objects in {@link #flatNodes} in parent-before-child order.
+     * @param node object to store
+     * @param parentId index of its parent in {@link #flatNodes} (-1 for this object)
+     * @param id index to store the object at
+     * @param vertexStart index of the first vertex of the object (including nested objects) in the world vertices -
+     *                    nested objects' vertices are stored first, own vertices last
+     * @return index after the last stored object
+     */
+    private int flattenNode(Object3D node, int parentId, int id, int vertexStart) {
+        flatNodes[id] = node;
+        flatParents[id] = parentId;
+        int nextId = id + 1;
+        for (var child : node.getNested()) {
+            nextId = flattenNode(child, id, nextId, vertexStart);
+            vertexStart += child.getVertexCountAll();
+        }
+        flatVertexStarts[id] = vertexStart;
+        return nextId;
+    }
+
+    /**
+     * Transform vertices by a matrix and store them in {@link #precalculatedVertices}.
+     * @param vertices vertices to transform
+     * @param matrix transformation matrix
+     * @param start index in {@link #precalculatedVertices} to store the first vertex at
+     */
+    private void transformVertices(Vector[] vertices, float[][] matrix, int start) {
+        for (int i = 0; i < vertices.length; i++) {
+            Vector local = vertices[i], world = precalculatedVertices[start + i];
+            world.x = matrix[0][0]*local.x + matrix[0][1]*local.y + matrix[0][2]*local.z + matrix[0][3];
+            world.y = matrix[1][0]*local.x + matrix[1][1]*local.y + matrix[1][2]*local.z + matrix[1][3];
+            world.z = matrix[2][0]*local.x + matrix[2][1]*local.y + matrix[2][2]*local.z + matrix[2][3];
+        }
+    }
+
+    /**
+     * Get the cached local-to-parent transformation matrix, recalculating it if the position, rotation or scale
+     * changed.
+     * @return matrix for local-to-parent transformation, don't modify it
+     */
+    private float[][] getLocalMatrix() {
+        if (localMatrix == null) localMatrix = getTransformMatrix();
+        return localMatrix;
+    }
+
     /**
      * Calculate local-to-world transformation matrix. It gets created in the following order.
      * <ul>
@@ -223,60 +562,53 @@ public abstract class Object3D {
     }
 
     /**
-     * Get edges of this object and all nested objects. Function will calculate resulting value during the first call, after that it will always return cached value.
-     * @return edges of this object and all nested objects
+     * Get a view of the edges of this object and all nested objects. The view references the edges of each object
+     * instead of copying them, vertex indices of the visited edges refer to the array returned by
+     * {@link #calculateWorldVertices}. Function will create the view during the first call, after that it will return
+     * cached value until {@link #invalidateVertexCache} gets called.
+     * @return view of the edges of this object and all nested objects
      */
-    public int[][] getEdgesAll() {
+    public EdgeView getEdgeViewAll() {
         if (precalculatedAllEdges == null) {
-            int[][] localEdges = getEdges();
-            int edgesCount = localEdges.length;
             Object3D[] nested = getNested();
-            int[][][] nestedEdges = new int[nested.length][][];
-            for (int i = 0; i < nested.length; i++) {
-                nestedEdges[i] = nested[i].getEdgesAll();
-                edgesCount += nestedEdges[i].length;
-            }
-
-            precalculatedAllEdges = new int[edgesCount][];
-            int id = 0, delta = 0;
+            EdgeView[] nestedViews = new EdgeView[nested.length];
+            int[] nestedOffsets = new int[nested.length];
+            int delta = 0;
             for (int i = 0; i < nested.length; i++) {
-                int[][] childEdges = nestedEdges[i];
-                for (int j = 0; j < childEdges.length; j++, id++) {
-                    precalculatedAllEdges[id] = new int[childEdges[j].length];
-                    if (childEdges[j].length >= 4) precalculatedAllEdges[id][3] = childEdges[j][3];
-                    if (childEdges[j].length >= 3) precalculatedAllEdges[id][2] = childEdges[j][2];
-                    precalculatedAllEdges[id][0] = childEdges[j][0] + delta;
-                    precalculatedAllEdges[id][1] = childEdges[j][1] + delta;
-                }
-                delta += nested[i].calculateWorldVertices().length;
-            }
-            for (int i = 0; i < localEdges.length; i++, id++) {
-                precalculatedAllEdges[id] = new int[localEdges[i].length];
-                if (localEdges[i].length >= 4) precalculatedAllEdges[id][3] = localEdges[i][3];
-                if (localEdges[i].length >= 3) precalculatedAllEdges[id][2] = localEdges[i][2];
-                precalculatedAllEdges[id][0] = localEdges[i][0] + delta;
-                precalculatedAllEdges[id][1] = localEdges[i][1] + delta;
+                nestedViews[i] = nested[i].getEdgeViewAll();
+                nestedOffsets[i] = delta;
+                delta += nested[i].getVertexCountAll();
             }
+            precalculatedAllEdges = new EdgeView(getEdgeBuffer(), delta, nestedViews, nestedOffsets);
         }
 
         return precalculatedAllEdges;
     }
 
     /**
-     * Get all vertices of this object and all nested objects paired with corresponding local-to-world transformation
-     * matrices.
-     * @return list of pairs, each containing a list of vertices and corresponding local-to-world transformation matrix
+     * Get edges of this object and all nested objects in a single buffer. Vertex indices refer to the array returned
+     * by {@link #calculateWorldVertices}. The edges get copied on every call, use {@link #getEdgeViewAll} to iterate
+     * over them without copying.
+     * @return edges of this object and all nested objects, don't modify them (subclasses may return a shared buffer)
      */
-    private ArrayList<Pair<Vector[], float[][]>> getVerticesWorldTransform() {
-        Object3D[] nested = getNested();
-        ArrayList<Pair<Vector[], float[][]>> result = new ArrayList<>();
-
-        for (var child : nested) result.addAll(child.getVerticesWorldTransform());
-
-        for (var pair : result) pair.setSecond(Matrix3D.multiply(getTransformMatrix(), pair.getSecond()));
+    public EdgeBuffer getEdgeBufferAll() {
+        return getEdgeViewAll().toBuffer();
+    }
 
-        result.add(new Pair<>(getVertices(), getTransformMatrix()));
+    /**
+     * Get the number of edges of this object and all nested objects.
+     * @return number of edges of this object and all nested objects
+     */
+    public int getEdgeCountAll() {
+        return getEdgeViewAll().size();
+    }
 
-        return result;
+    /**
+     * Get edges of this object and all nested objects in the legacy format of {@link #getEdges()}. New arrays are
+     * created on every call, use {@link #getEdgeViewAll} instead where possible.
+     * @return edges of this object and all nested objects
+     */
+    public int[][] getEdgesAll() {
+        return getEdgeViewAll().toBuffer().toArrays();
     }
 }
\ No newline at end of file
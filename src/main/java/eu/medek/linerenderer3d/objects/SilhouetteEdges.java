@@ -0,0 +1,354 @@
+package eu.medek.linerenderer3d.objects;
+
+import eu.medek.linerenderer3d.system.LongIntHashMap;
+import eu.medek.linerenderer3d.system.Vector;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Triangle adjacency of a mesh used to draw only its outline - edges between a triangle facing the camera and a
+ * triangle facing away from it (silhouette edges), plus feature edges that are always drawn: boundary edges, edges
+ * shared by more than two triangles and edges whose triangles meet at an angle larger than the crease angle.
+ * <br>
+ * Every frame, {@link #update} tests each triangle's plane against the camera position in local space of the mesh and
+ * then compares the results of the two triangles of each edge - tight loops over primitive arrays that can be split
+ * into chunks processed on the common {@link ForkJoinPool} - and finally gathers the edges whose two triangles got
+ * different results. Smooth meshes with millions of triangles are drawn using only thousands of edges. Triangles with
+ * zero area are ignored.
+ */
+public class SilhouetteEdges {
+    /**
+     * Pairs of vertices (indices within a triangle) forming the edges of a triangle.
+     */
+    private static final int[][] TRIANGLE_EDGES = {{0, 1}, {1, 2}, {0, 2}};
+
+    /**
+     * Plane of each triangle in local space, 4 values per triangle - normal and distance from the origin.
+     */
+    private final float[] planes;
+
+    /**
+     * Number of triangles with non-zero area.
+     */
+    private final int faceCount;
+
+    /**
+     * Result of the last classification, 1 for triangles facing the camera, 0 otherwise.
+     */
+    private final byte[] facing;
+
+    /**
+     * Vertices of the edges shared by exactly two triangles that aren't feature edges, 2 values per edge.
+     */
+    private final int[] edgeVertices;
+
+    /**
+     * Triangles of the edges in {@link #edgeVertices}, 2 values per edge.
+     */
+    private final int[] edgeFaces;
+
+    /**
+     * Result of the last comparison of the triangles of each edge in {@link #edgeVertices}, 1 for silhouette edges.
+     */
+    private final byte[] silhouette;
+
+    /**
+     * Position of the camera in local space of the mesh during the last {@link #update}.
+     */
+    private float cameraX, cameraY, cameraZ;
+
+    /**
+     * Feature edges, drawn regardless of the camera position.
+     */
+    private final EdgeBuffer featureEdges;
+
+    /**
+     * Feature edges followed by the silhouette edges found by the last {@link #update}.
+     */
+    private final EdgeBuffer edges;
+
+    /**
+     * Indices of the vertices used by {@link #edges}, valid up to {@link #vertexCount}.
+     */
+    private int[] usedVertices = new int[16];
+
+    /**
+     * Number of vertices used by {@link #edges}.
+     */
+    private int vertexCount = 0;
+
+    /**
+     * Frame in which each vertex was last added to {@link #usedVertices}.
+     */
+    private final int[] vertexFrame;
+
+    /**
+     * Number of calls to {@link #update}.
+     */
+    private int frame = 0;
+
+    /**
+     * Build the adjacency of a mesh.
+     * @param vertices local vertices of the mesh, they must not change afterwards
+     * @param triangles indices of the vertices of the triangles, 3 per triangle
+     * @param creaseAngle angle between the normals of two triangles (in radians) above which their shared edge is a
+     *                    feature edge, use {@link Math#PI} to only keep boundary and non-manifold edges
+     */
+    public SilhouetteEdges(Vector[] vertices, int[] triangles, float creaseAngle) {
+        int triangleCount = triangles.length / 3;
+        float[] triPlanes = new float[triangleCount * 4];
+        int[] face = new int[triangleCount];
+        int faces = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            Vector a = vertices[triangles[3*t]];
+            Vector u = Vector.sub(vertices[triangles[3*t+1]], a), v = Vector.sub(vertices[triangles[3*t+2]], a);
+            Vector normal = new Vector(u.y*v.z - u.z*v.y, u.z*v.x - u.x*v.z, u.x*v.y - u.y*v.x);
+            float length = normal.mag();
+            if (!(length > 0)) {
+                face[t] = -1;
+                continue;
+            }
+            face[t] = faces;
+            triPlanes[4*faces] = normal.x / length;
+            triPlanes[4*faces+1] = normal.y / length;
+            triPlanes[4*faces+2] = normal.z / length;
+            triPlanes[4*faces+3] = (normal.x*a.x + normal.y*a.y + normal.z*a.z) / length;
+            faces++;
+        }
+        faceCount = faces;
+        planes = Arrays.copyOf(triPlanes, faces * 4);
+        facing = new byte[faces];
+
+        // the first triangle of every edge, the number of its triangles and whether it is a crease
+        float creaseCos = (float)Math.cos(creaseAngle);
+        LongIntHashMap edgeIds = new LongIntHashMap(triangles.length / 2);
+        int[] from = new int[triangles.length], to = new int[triangles.length];
+        int[] faceA = new int[triangles.length], faceB = new int[triangles.length];
+        int[] faceCounts = new int[triangles.length];
+        boolean[] crease = new boolean[triangles.length];
+        for (int t = 0; t < triangleCount; t++) {
+            int f = face[t];
+            if (f == -1) continue;
+            for (int j = 0; j < 3; j++) {
+                int a = triangles[3*t + TRIANGLE_EDGES[j][0]], b = triangles[3*t + TRIANGLE_EDGES[j][1]];
+                int id = edgeIds.size();
+                int existing = edgeIds.putIfAbsent(((long)Math.min(a, b) << 32) | Math.max(a, b), id);
+                if (existing == LongIntHashMap.MISSING) {
+                    from[id] = a;
+                    to[id] = b;
+                    faceA[id] = f;
+                    faceCounts[id] = 1;
+                } else {
+                    int first = faceA[existing];
+                    float cos = planes[4*first]*planes[4*f] + planes[4*first+1]*planes[4*f+1]
+                            + planes[4*first+2]*planes[4*f+2];
+                    if (cos < creaseCos) crease[existing] = true;
+                    faceB[existing] = f;
+                    faceCounts[existing]++;
+                }
+            }
+        }
+
+        featureEdges = new EdgeBuffer();
+        int candidates = 0;
+        for (int id = 0; id < edgeIds.size(); id++) {
+            if (faceCounts[id] != 2 || crease[id]) featureEdges.add(from[id], to[id]);
+            else candidates++;
+        }
+        edgeVertices = new int[2 * candidates];
+        edgeFaces = new int[2 * candidates];
+        silhouette = new byte[candidates];
+        for (int id = 0, i = 0; id < edgeIds.size(); id++) {
+            if (faceCounts[id] != 2 || crease[id]) continue;
+            edgeVertices[i] = from[id];
+            edgeVertices[i + 1] = to[id];
+            edgeFaces[i] = faceA[id];
+            edgeFaces[i + 1] = faceB[id];
+            i += 2;
+        }
+
+        edges = new EdgeBuffer(featureEdges.size() + 16);
+        vertexFrame = new int[vertices.length];
+    }
+
+    /**
+     * @return feature edges of the mesh in the order in which they first appear in the triangles, don't modify them
+     */
+    public EdgeBuffer getFeatureEdges() {
+        return featureEdges;
+    }
+
+    /**
+     * @return the number of triangles tested against the camera position by {@link #update}
+     */
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    /**
+     * Find the silhouette edges for a camera position and gather them together with the feature edges into
+     * {@link #getEdges()} and their vertices into {@link #getVertices()}. Doesn't allocate once the buffers are large
+     * enough, unless the work is split into more than one chunk.
+     * @param x x coordinate of the camera in local space of the mesh
+     * @param y y coordinate of the camera in local space of the mesh
+     * @param z z coordinate of the camera in local space of the mesh
+     * @param chunks number of chunks to split the tests into, 1 for testing sequentially on the calling thread
+     */
+    public void update(float x, float y, float z, int chunks) {
+        cameraX = x;
+        cameraY = y;
+        cameraZ = z;
+        chunks = Math.max(1, Math.min(chunks, faceCount));
+        if (chunks == 1) classifyFaces(0, faceCount);
+        else {
+            ForkJoinPool.commonPool().invoke(new ChunkTask(true, chunks, 0, chunks));
+            ForkJoinPool.commonPool().invoke(new ChunkTask(false, chunks, 0, chunks));
+        }
+        collectEdges(chunks > 1);
+    }
+
+    /**
+     * Find out which triangles in the range [start, end) face the camera.
+     * @param start index of the first triangle to classify
+     * @param end index after the last triangle to classify
+     */
+    private void classifyFaces(int start, int end) {
+        float[] p = planes;
+        float x = cameraX, y = cameraY, z = cameraZ;
+        for (int f = start, i = 4 * start; f < end; f++, i += 4) {
+            facing[f] = (p[i]*x + p[i+1]*y + p[i+2]*z > p[i+3]) ? (byte)1 : (byte)0;
+        }
+    }
+
+    /**
+     * Mark the edges in the range [start, end) whose triangles got different results in {@link #classifyFaces}.
+     * @param start index of the first edge to compare
+     * @param end index after the last edge to compare
+     */
+    private void compareFaces(int start, int end) {
+        int[] faces = edgeFaces;
+        for (int i = start, j = 2 * start; i < end; i++, j += 2) {
+            silhouette[i] = (byte)(facing[faces[j]] ^ facing[faces[j + 1]]);
+        }
+    }
+
+    /**
+     * Gather the feature edges and the silhouette edges into {@link #edges} and their vertices into
+     * {@link #usedVertices}.
+     * @param compared true if the silhouette edges were already marked by {@link #compareFaces}, false to compare the
+     *                 triangles of the edges while gathering them
+     */
+    private void collectEdges(boolean compared) {
+        if (++frame == 0) {
+            Arrays.fill(vertexFrame, 0);
+            frame = 1;
+        }
+        edges.clear();
+        vertexCount = 0;
+        edges.addAll(featureEdges, 0);
+        int[] data = featureEdges.getData();
+        for (int i = 0; i < featureEdges.size() * EdgeBuffer.STRIDE; i += EdgeBuffer.STRIDE) {
+            useVertex(data[i + EdgeBuffer.FROM]);
+            useVertex(data[i + EdgeBuffer.TO]);
+        }
+        int[] faces = edgeFaces;
+        for (int i = 0; i < silhouette.length; i++) {
+            if (compared ? silhouette[i] == 0 : facing[faces[2 * i]] == facing[faces[2 * i + 1]]) continue;
+            int from = edgeVertices[2 * i], to = edgeVertices[2 * i + 1];
+            edges.add(from, to);
+            useVertex(from);
+            useVertex(to);
+        }
+    }
+
+    /**
+     * Add a vertex to {@link #usedVertices} unless it was already added in the current frame.
+     * @param vertex index of the vertex
+     */
+    private void useVertex(int vertex) {
+        if (vertexFrame[vertex] == frame) return;
+        vertexFrame[vertex] = frame;
+        if (vertexCount == usedVertices.length) usedVertices = Arrays.copyOf(usedVertices, 2 * vertexCount);
+        usedVertices[vertexCount++] = vertex;
+    }
+
+    /**
+     * @return edges found by the last {@link #update}, don't modify them
+     */
+    public EdgeBuffer getEdges() {
+        return edges;
+    }
+
+    /**
+     * @return indices of the vertices used by the edges found by the last {@link #update}, valid up to
+     * {@link #getVertexCount()}, don't modify them
+     */
+    public int[] getVertices() {
+        return usedVertices;
+    }
+
+    /**
+     * @return the number of vertices used by the edges found by the last {@link #update}
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Task running {@link #classifyFaces} or {@link #compareFaces} for a range of chunks.
+     */
+    private class ChunkTask extends RecursiveAction {
+        /**
+         * Tasks are never serialized, the version only satisfies {@link java.io.Serializable}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * True to classify the triangles, false to compare the triangles of the edges.
+         */
+        private final boolean faces;
+
+        /**
+         * Number of chunks.
+         */
+        private final int chunks;
+
+        /**
+         * Range of chunks [firstChunk, endChunk) to process.
+         */
+        private final int firstChunk, endChunk;
+
+        /**
+         * @param faces true to classify the triangles, false to compare the triangles of the edges
+         * @param chunks number of chunks
+         * @param firstChunk index of the first chunk to process
+         * @param endChunk index after the last chunk to process
+         */
+        ChunkTask(boolean faces, int chunks, int firstChunk, int endChunk) {
+            this.faces = faces;
+            this.chunks = chunks;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void compute() {
+            if (endChunk - firstChunk > 1) {
+                int middle = (firstChunk + endChunk) >>> 1;
+                invokeAll(new ChunkTask(faces, chunks, firstChunk, middle), new ChunkTask(faces, chunks, middle, endChunk));
+                return;
+            }
+
+            int count = faces ? faceCount : silhouette.length;
+            int start = (int)((long)count * firstChunk / chunks);
+            int end = (int)((long)count * (firstChunk + 1) / chunks);
+            if (faces) classifyFaces(start, end);
+            else compareFaces(start, end);
+        }
+    }
+}
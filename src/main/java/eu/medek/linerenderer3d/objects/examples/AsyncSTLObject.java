@@ -0,0 +1,329 @@
+package eu.medek.linerenderer3d.objects.examples;
+
+import eu.medek.linerenderer3d.World;
+import eu.medek.linerenderer3d.objects.EdgeBuffer;
+import eu.medek.linerenderer3d.objects.EdgeLevels;
+import eu.medek.linerenderer3d.objects.Object3D;
+import eu.medek.linerenderer3d.objects.SilhouetteEdges;
+import eu.medek.linerenderer3d.system.Vector;
+import eu.medek.linerenderer3d.system.stlreader.STLReader;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * STL object loaded in the background, so that loading large files doesn't block drawing. The object is added to the
+ * {@link World} right away and fills in over several frames - while the file is being read, the triangles read so far
+ * are shown with all their edges (without welding, up to {@link #PREVIEW_LIMIT} triangles). Once the whole file is
+ * read, an {@link STLObject} is built from it in the background and this object shows its geometry from the next frame
+ * on, including its levels of detail or silhouette.
+ * <br>
+ * The read triangles are handed over to the drawing thread using {@link World#invokeLater}, so the object can only be
+ * used by the World it was loaded into. Several files can be loaded at the same time, each of them uses one thread of
+ * the executor (large text files are parsed in parallel on the common {@link java.util.concurrent.ForkJoinPool}).
+ */
+public class AsyncSTLObject extends Object3D {
+    /**
+     * Maximum number of triangles shown while the file is being read. Triangles are shown without welding, which needs
+     * several times more memory than the final object, so the rest of a large file only appears when it is fully
+     * loaded.
+     */
+    public static final int PREVIEW_LIMIT = 1 << 18;
+
+    /**
+     * Minimum number of newly read triangles handed over to the drawing thread at once. Every hand-over rewrites the
+     * whole object in the World, so it also waits for a quarter of the already shown triangles.
+     */
+    private static final int MIN_PUBLISH_TRIANGLES = 1 << 12;
+
+    /**
+     * Executor used by {@link #load(World, float[], float[], float[], Path, boolean, float, boolean)}, it creates
+     * daemon threads as needed, so loading several files doesn't take threads from the common
+     * {@link java.util.concurrent.ForkJoinPool} used for drawing.
+     */
+    private static final Executor DEFAULT_EXECUTOR = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "STL loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * World the object is loaded into.
+     */
+    private final World world;
+
+    /**
+     * Option to normalize the vertices to be in a cube of size 1 with its center at 0.
+     */
+    private final boolean normalize;
+
+    /**
+     * Future completed with the loaded object, or exceptionally if the file couldn't be read.
+     */
+    private final CompletableFuture<STLObject> future = new CompletableFuture<>();
+
+    /**
+     * Lock guarding {@link #readCoordinates}, {@link #readCount}, {@link #storedCount} and {@link #scheduledCount},
+     * which are written by the reading threads.
+     */
+    private final Object readLock = new Object();
+
+    /**
+     * Coordinates of the read triangles kept for the preview, 9 values per triangle, valid up to {@link #storedCount}
+     * triangles.
+     */
+    private float[] readCoordinates = new float[9 * MIN_PUBLISH_TRIANGLES];
+
+    /**
+     * Number of triangles read so far.
+     */
+    private int readCount = 0;
+
+    /**
+     * Number of triangles stored in {@link #readCoordinates}, at most {@link #PREVIEW_LIMIT}.
+     */
+    private int storedCount = 0;
+
+    /**
+     * Value of {@link #storedCount} when the last hand-over to the drawing thread was scheduled.
+     */
+    private int scheduledCount = 0;
+
+    /**
+     * Vertices of the preview, 3 per shown triangle (only used by the drawing thread).
+     */
+    private Vector[] previewVertices = new Vector[0];
+
+    /**
+     * Edges of the preview, 3 per shown triangle (only used by the drawing thread).
+     */
+    private final EdgeBuffer previewEdges = new EdgeBuffer();
+
+    /**
+     * Loaded object whose geometry is shown, null while the file is being read (only used by the drawing thread).
+     */
+    private STLObject loaded = null;
+
+    /**
+     * @param world world the object is loaded into
+     * @param normalize option to normalize the vertices to be in a cube of size 1 with its center at 0
+     * @see Object3D#Object3D(float[], float[], float[])
+     */
+    private AsyncSTLObject(World world, float[] position, float[] rotation, float[] scale, boolean normalize) {
+        super(position, rotation, scale);
+        this.world = world;
+        this.normalize = normalize;
+    }
+
+    /**
+     * Start loading an STL file in the background on a thread of a shared pool of daemon threads. The object is added
+     * to the world at the start of the next frame. This method can be called from any thread.
+     * @param world world to add the object to
+     * @param path path to the STL file
+     * @param normalize option to normalize the vertices of the loaded object to be in a cube of size 1 with its center
+     *                  at 0
+     * @param creaseAngle angle between the normals of two triangles (in radians) above which their shared edge is
+     *                    kept, {@link STLObject#ALL_EDGES} to keep all edges
+     * @param silhouette option to draw only the silhouette and the feature edges of the mesh
+     * @return the added object, use {@link #getFuture()} to find out when it is loaded
+     * @see STLObject#STLObject(float[], float[], float[], Path, boolean, float, boolean)
+     */
+    public static AsyncSTLObject load(World world, float[] position, float[] rotation, float[] scale, Path path,
+                                      boolean normalize, float creaseAngle, boolean silhouette) {
+        return load(world, position, rotation, scale, path, normalize, creaseAngle, silhouette, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Start loading an STL file in the background using the given executor. The object is added to the world at the
+     * start of the next frame. This method can be called from any thread.
+     * @param world world to add the object to
+     * @param path path to the STL file
+     * @param normalize option to normalize the vertices of the loaded object to be in a cube of size 1 with its center
+     *                  at 0
+     * @param creaseAngle angle between the normals of two triangles (in radians) above which their shared edge is
+     *                    kept, {@link STLObject#ALL_EDGES} to keep all edges
+     * @param silhouette option to draw only the silhouette and the feature edges of the mesh
+     * @param executor executor reading the file and building the object
+     * @return the added object, use {@link #getFuture()} to find out when it is loaded
+     * @see STLObject#STLObject(float[], float[], float[], Path, boolean, float, boolean)
+     */
+    public static AsyncSTLObject load(World world, float[] position, float[] rotation, float[] scale, Path path,
+                                      boolean normalize, float creaseAngle, boolean silhouette, Executor executor) {
+        AsyncSTLObject object = new AsyncSTLObject(world, position, rotation, scale, normalize);
+        world.invokeLater(() -> world.addObject(object));
+        executor.execute(() -> {
+            try {
+                // the object gets its own transformation, only its geometry is shown by this object
+                STLObject result = new STLObject(position.clone(), rotation.clone(), scale.clone(),
+                        new STLReader(path).tryReadMesh(false, object::trianglesRead), normalize, creaseAngle,
+                        silhouette);
+                world.invokeLater(() -> object.finish(result));
+                object.future.complete(result);
+            } catch (Exception e) {
+                world.invokeLater(() -> object.finish(null));
+                object.future.completeExceptionally(e);
+            }
+        });
+        return object;
+    }
+
+    /**
+     * Store a batch of read triangles for the preview and schedule a hand-over to the drawing thread once enough of
+     * them were read. Called by the reading threads.
+     * @param vertices array containing the coordinates of the triangles, 9 values per triangle
+     * @param first index of the first triangle of the batch in vertices
+     * @param count number of triangles in the batch
+     */
+    private void trianglesRead(float[] vertices, int first, int count) {
+        synchronized (readLock) {
+            readCount += count;
+            int stored = Math.min(count, PREVIEW_LIMIT - storedCount);
+            if (stored <= 0) return;
+            if (9 * (storedCount + stored) > readCoordinates.length) {
+                int capacity = Math.max(2 * readCoordinates.length, 9 * (storedCount + stored));
+                readCoordinates = Arrays.copyOf(readCoordinates, Math.min(capacity, 9 * PREVIEW_LIMIT));
+            }
+            System.arraycopy(vertices, 9 * first, readCoordinates, 9 * storedCount, 9 * stored);
+            storedCount += stored;
+
+            int unscheduled = storedCount - scheduledCount;
+            if (unscheduled < Math.max(MIN_PUBLISH_TRIANGLES, scheduledCount / 4) && storedCount < PREVIEW_LIMIT) return;
+            scheduledCount = storedCount;
+        }
+        world.invokeLater(this::publish);
+    }
+
+    /**
+     * Show the triangles read since the last hand-over. Run on the drawing thread.
+     */
+    private void publish() {
+        synchronized (readLock) {
+            int shown = previewVertices.length / 3;
+            if (readCoordinates == null || storedCount == shown) return;
+
+            previewVertices = Arrays.copyOf(previewVertices, 3 * storedCount);
+            for (int i = 3 * shown; i < previewVertices.length; i++) previewVertices[i] = new Vector();
+            previewEdges.ensureCapacity(3 * (storedCount - shown));
+            for (int i = 3 * shown; i < previewVertices.length; i += 3) {
+                previewEdges.add(i, i + 1);
+                previewEdges.add(i + 1, i + 2);
+                previewEdges.add(i, i + 2);
+            }
+
+            // the bounding box grows as the triangles are read, so all vertices are normalized again (the same way
+            // as by STLObject, which starts the bounding box at 0)
+            float[] center = new float[3];
+            float dist = 1;
+            if (normalize) {
+                float[] min = new float[3], max = new float[3];
+                for (int i = 0; i < previewVertices.length * 3; i++) {
+                    min[i % 3] = Math.min(min[i % 3], readCoordinates[i]);
+                    max[i % 3] = Math.max(max[i % 3], readCoordinates[i]);
+                }
+                dist = 0;
+                for (int axis = 0; axis < 3; axis++) {
+                    float delta = max[axis] - min[axis];
+                    center[axis] = delta * 0.5f + min[axis];
+                    dist = Math.max(dist, delta);
+                }
+            }
+            int first = normalize ? 0 : 3 * shown;
+            for (int i = first; i < previewVertices.length; i++) {
+                Vector vertex = previewVertices[i];
+                vertex.x = (readCoordinates[3*i] - center[0]) / dist;
+                vertex.y = (readCoordinates[3*i+1] - center[1]) / dist;
+                vertex.z = (readCoordinates[3*i+2] - center[2]) / dist;
+            }
+        }
+        invalidateVertexCache();
+    }
+
+    /**
+     * Replace the preview with the loaded object, or remove it if the file couldn't be read. Run on the drawing
+     * thread.
+     * @param result loaded object, null if loading failed
+     */
+    private void finish(STLObject result) {
+        synchronized (readLock) {
+            readCoordinates = null;
+        }
+        loaded = result;
+        previewVertices = new Vector[0];
+        previewEdges.clear();
+        invalidateVertexCache();
+    }
+
+    /**
+     * Get the future completed with the loaded object (in the background, the object shows its geometry from the next
+     * frame on) or exceptionally with the reason why the file couldn't be read. The returned object isn't part of the
+     * world, this object keeps showing its geometry.
+     * @return future of the loaded object
+     */
+    public CompletableFuture<STLObject> getFuture() {
+        return future;
+    }
+
+    /**
+     * Get the number of triangles read so far, can be called from any thread.
+     * @return number of read triangles
+     */
+    public int getReadTriangleCount() {
+        synchronized (readLock) {
+            return readCount;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Vector[] getVertices() {
+        return (loaded != null) ? loaded.getVertices() : previewVertices;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[][] getEdges() {
+        return getEdgeBuffer().toArrays();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EdgeBuffer getEdgeBuffer() {
+        return (loaded != null) ? loaded.getEdgeBuffer() : previewEdges;
+    }
+
+    /**
+     * Levels of detail of the loaded object.
+     * @return levels of detail of the edges, null while the file is being read
+     */
+    @Override
+    public EdgeLevels getEdgeLevels() {
+        return (loaded != null) ? loaded.getEdgeLevels() : null;
+    }
+
+    /**
+     * Silhouette of the loaded object.
+     * @return silhouette edges of the loaded object, null while the file is being read or if it isn't in silhouette
+     * mode
+     */
+    @Override
+    public SilhouetteEdges getSilhouetteEdges() {
+        return (loaded != null) ? loaded.getSilhouetteEdges() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Object3D[] getNestedAbstract() {
+        return new Object3D[0];
+    }
+}
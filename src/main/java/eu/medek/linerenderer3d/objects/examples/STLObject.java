@@ -1,20 +1,52 @@
 package eu.medek.linerenderer3d.objects.examples;
 
+import eu.medek.linerenderer3d.objects.EdgeBuffer;
+import eu.medek.linerenderer3d.objects.EdgeLevels;
 import eu.medek.linerenderer3d.objects.Object3D;
+import eu.medek.linerenderer3d.objects.SilhouetteEdges;
+import eu.medek.linerenderer3d.system.LongIntHashMap;
 import eu.medek.linerenderer3d.system.Vector;
 import eu.medek.linerenderer3d.system.stlreader.STLReader;
-import eu.medek.linerenderer3d.system.stlreader.STLTriangle;
-import eu.medek.linerenderer3d.system.stlreader.Vertex;
+import eu.medek.linerenderer3d.system.stlreader.STLMesh;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
 
 /**
  * Implementation of Object3D class able to display an STL file (both binary and text).
+ * <br>
+ * STL files store every triangle with its own three vertices. While loading, vertices in the same cell of a grid with
+ * a step of about 2e-6 of the largest coordinate (copies of the same vertex stored in the neighbouring triangles) are
+ * welded into one and every edge shared by two triangles is stored only once, so a closed mesh has about 6 times fewer
+ * vertices and half the edges.
+ * <br>
+ * The file is read without its normals straight into a float array. The vertices are welded and their bounding box
+ * for normalization is computed in a single pass over it, with the welded vertices compacted into the start of the
+ * same array, and the shared edges are found using the neighbours of every vertex instead of a hash set of all edges,
+ * so no object is created per triangle and the memory needed during loading stays close to the size of the file.
  */
 public class STLObject extends Object3D {
+    /**
+     * Number of quantization steps between 0 and the largest absolute coordinate when welding vertices.
+     */
+    private static final int QUANTIZATION = 1 << 19;
+
+    /**
+     * Crease angle keeping all edges of the mesh.
+     */
+    public static final float ALL_EDGES = 0;
+
+    /**
+     * Pairs of vertices (indices within a triangle) forming the edges of a triangle.
+     */
+    private static final int[][] TRIANGLE_EDGES = {{0, 1}, {1, 2}, {0, 2}};
+
+    private final int triangleCount;
     private final Vector[] vertices;
-    private final int[][] edges;
+    private final EdgeBuffer edges;
+    private final EdgeLevels edgeLevels;
+    private final SilhouetteEdges silhouetteEdges;
 
     /**
      * Constructor for also setting path to the STL file and with an option to normalize vertices.
@@ -25,53 +57,223 @@ public class STLObject extends Object3D {
      * @see Object3D#Object3D(float[], float[], float[])
      */
     public STLObject(float[] position, float[] rotation, float[] scale, Path path, boolean normalize) throws IOException {
+        this(position, rotation, scale, path, normalize, ALL_EDGES, false);
+    }
+
+    /**
+     * Constructor for also setting path to the STL file, with an option to normalize vertices and an option to keep
+     * only the feature edges of the mesh. An edge is a feature edge if it is on the boundary of the mesh, if it is
+     * shared by more than two triangles or if the angle between the normals of its two triangles is larger than
+     * creaseAngle. Edges between nearly coplanar triangles of tessellated curved surfaces are dropped, together with
+     * vertices not used by any remaining edge. Normals are computed from the vertices (in the order given by the
+     * file), the normals stored in the file are often missing or imprecise.
+     * @param path path to the STL file; there are no checks, has to be valid, otherwise IOException gets thrown
+     * @param normalize option to normalize the vertices of the loaded object to be in a cube of size 1 with its center
+     *                  at 0
+     * @param creaseAngle angle between the normals of two triangles (in radians) above which their shared edge is
+     *                    kept, {@link #ALL_EDGES} to keep all edges
+     * @throws IOException if any error arises while reading the file
+     * @see Object3D#Object3D(float[], float[], float[])
+     */
+    public STLObject(float[] position, float[] rotation, float[] scale, Path path, boolean normalize, float creaseAngle)
+            throws IOException {
+        this(position, rotation, scale, path, normalize, creaseAngle, false);
+    }
+
+    /**
+     * Constructor for also setting path to the STL file, with an option to normalize vertices, an option to keep only
+     * the feature edges of the mesh and an option to draw the mesh using its silhouette. In silhouette mode, the
+     * {@link eu.medek.linerenderer3d.World World} draws only the {@link SilhouetteEdges silhouette edges} for the
+     * current camera position and the feature edges given by creaseAngle (only boundary and non-manifold edges for
+     * {@link #ALL_EDGES}), while {@link #getEdgeBuffer()} still returns all edges of the mesh.
+     * @param path path to the STL file; there are no checks, has to be valid, otherwise IOException gets thrown
+     * @param normalize option to normalize the vertices of the loaded object to be in a cube of size 1 with its center
+     *                  at 0
+     * @param creaseAngle angle between the normals of two triangles (in radians) above which their shared edge is
+     *                    kept, {@link #ALL_EDGES} to keep all edges
+     * @param silhouette option to draw only the silhouette and the feature edges of the mesh
+     * @throws IOException if any error arises while reading the file
+     * @see #STLObject(float[], float[], float[], Path, boolean, float)
+     */
+    public STLObject(float[] position, float[] rotation, float[] scale, Path path, boolean normalize, float creaseAngle,
+                     boolean silhouette) throws IOException {
+        this(position, rotation, scale, new STLReader(path).tryReadMesh(false), normalize, creaseAngle, silhouette);
+    }
+
+    /**
+     * Constructor for an already read STL mesh, with the same options as
+     * {@link #STLObject(float[], float[], float[], Path, boolean, float, boolean)}.
+     * @param mesh triangles of the object, its vertex coordinates get overwritten while welding (normals are unused)
+     * @param normalize option to normalize the vertices of the loaded object to be in a cube of size 1 with its center
+     *                  at 0
+     * @param creaseAngle angle between the normals of two triangles (in radians) above which their shared edge is
+     *                    kept, {@link #ALL_EDGES} to keep all edges
+     * @param silhouette option to draw only the silhouette and the feature edges of the mesh
+     * @see Object3D#Object3D(float[], float[], float[])
+     */
+    public STLObject(float[] position, float[] rotation, float[] scale, STLMesh mesh, boolean normalize,
+                     float creaseAngle, boolean silhouette) {
         super(position, rotation, scale);
 
-        STLReader reader = new STLReader(path);
-        STLTriangle[] tris = reader.tryRead();
+        triangleCount = mesh.getTriangleCount();
+        int[] indices = new int[triangleCount*3];
+        Vector[] welded = weld(mesh.getVertices(), indices, normalize);
+        mesh = null; // release the coordinates of the triangles before the edges are created
 
-        vertices = new Vector[tris.length*3];
-        edges = new int[tris.length*3][2];
+        // edges shared by neighbouring triangles are added once, edges collapsed by welding are dropped
+        if (silhouette) {
+            silhouetteEdges = new SilhouetteEdges(welded, indices, (creaseAngle > 0) ? creaseAngle : (float)Math.PI);
+            edges = allEdges(indices, welded.length);
+            vertices = welded;
+        } else if (creaseAngle > 0) {
+            silhouetteEdges = null;
+            edges = new SilhouetteEdges(welded, indices, creaseAngle).getFeatureEdges();
+            vertices = removeUnusedVertices(welded, edges);
+        } else {
+            silhouetteEdges = null;
+            edges = allEdges(indices, welded.length);
+            vertices = welded;
+        }
 
-        for (int i = 0; i < tris.length; i++) {
-            vertices[3*i] = vertexToVector(tris[i].getP1());
-            vertices[3*i+1] = vertexToVector(tris[i].getP2());
-            vertices[3*i+2] = vertexToVector(tris[i].getP3());
+        edgeLevels = new EdgeLevels(vertices, edges);
+    }
+
+    /**
+     * Weld vertices falling into the same quantization cell, the first one represents the whole cell. The bounding box
+     * of the welded vertices is computed in the same pass.
+     * @param coordinates coordinates of the vertices of the triangles, 9 values per triangle; the coordinates of the
+     *                    welded vertices are written to its start
+     * @param indices output array for the indices of the welded vertices of the triangles, 3 per triangle
+     * @param normalize option to normalize the welded vertices to be in a cube of size 1 with its center at 0
+     * @return welded vertices
+     */
+    private static Vector[] weld(float[] coordinates, int[] indices, boolean normalize) {
+        float extent = 0;
+        for (float coordinate : coordinates) extent = Math.max(extent, Math.abs(coordinate));
+        float quantization = (extent > 0) ? QUANTIZATION / extent : 0;
 
-            edges[3*i] = new int[]{3*i, 3*i+1};
-            edges[3*i+1] = new int[]{3*i+1, 3*i+2};
-            edges[3*i+2] = new int[]{3*i, 3*i+2};
+        // index of a welded vertex is never larger than the index of the original vertex, so moving it to the start of
+        // coordinates doesn't overwrite any vertex that hasn't been read yet
+        LongIntHashMap cells = new LongIntHashMap(indices.length/3);
+        float[] min = new float[3], max = new float[3];
+        for (int i = 0; i < indices.length; i++) {
+            int index = cells.size();
+            int existing = cells.putIfAbsent(quantize(coordinates[3*i], coordinates[3*i+1], coordinates[3*i+2],
+                    quantization), index);
+            if (existing != LongIntHashMap.MISSING) {
+                indices[i] = existing;
+                continue;
+            }
+            for (int axis = 0; axis < 3; axis++) {
+                float coordinate = coordinates[3*i + axis];
+                coordinates[3*index + axis] = coordinate;
+                if (coordinate < min[axis]) min[axis] = coordinate;
+                if (coordinate > max[axis]) max[axis] = coordinate;
+            }
+            indices[i] = index;
         }
 
+        int vertexCount = cells.size();
         if (normalize) {
-            Vector min = new Vector(), max = new Vector();
-            for (Vector vertex : vertices) {
-                if (vertex.x < min.x) min.x = vertex.x;
-                if (vertex.y < min.y) min.y = vertex.y;
-                if (vertex.z < min.z) min.z = vertex.z;
-
-                if (vertex.x > max.x) max.x = vertex.x;
-                if (vertex.y > max.y) max.y = vertex.y;
-                if (vertex.z > max.z) max.z = vertex.z;
+            float[] center = new float[3];
+            float dist = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                float delta = max[axis] - min[axis];
+                center[axis] = delta * 0.5f + min[axis];
+                dist = Math.max(dist, delta);
             }
+            for (int i = 0; i < vertexCount*3; i++) coordinates[i] = (coordinates[i] - center[i % 3]) / dist;
+        }
+
+        Vector[] welded = new Vector[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            welded[i] = new Vector(coordinates[3*i], coordinates[3*i+1], coordinates[3*i+2]);
+        }
+        return welded;
+    }
 
-            Vector delta = Vector.sub(max, min);
-            Vector center = new Vector(delta).mult(0.5f).add(min);
-            float dist = Math.max(delta.x, Math.max(delta.y, delta.z));
-            for (Vector vertex : vertices) {
-                vertex.sub(center);
-                vertex.div(dist);
+    /**
+     * Create the edges of all triangles, every edge shared by several triangles only once and in the order of its first
+     * occurrence. Edges already added are looked up among the neighbours of their lower vertex, stored in one array
+     * with a range reserved for every vertex, which needs a fraction of the memory of a hash set of all edges.
+     * @param indices indices of the welded vertices of the triangles, 3 per triangle
+     * @param vertexCount number of welded vertices
+     * @return edges of the triangles
+     */
+    private static EdgeBuffer allEdges(int[] indices, int vertexCount) {
+        // neighbours of vertex v are stored in [start[v], start[v+1]), only the first filled[v] of them are used
+        int[] start = new int[vertexCount + 1];
+        for (int i = 0; i < indices.length; i += 3) {
+            for (int[] pair : TRIANGLE_EDGES) {
+                int from = indices[i + pair[0]], to = indices[i + pair[1]];
+                if (from != to) start[Math.min(from, to) + 1]++;
             }
         }
+        for (int v = 0; v < vertexCount; v++) start[v + 1] += start[v];
+        int[] filled = new int[vertexCount];
+        int[] neighbours = new int[start[vertexCount]];
+
+        EdgeBuffer edges = new EdgeBuffer(indices.length/2);
+        for (int i = 0; i < indices.length; i += 3) {
+            for (int[] pair : TRIANGLE_EDGES) {
+                int from = indices[i + pair[0]], to = indices[i + pair[1]];
+                if (from == to) continue;
+                int lower = Math.min(from, to), upper = Math.max(from, to);
+                int first = start[lower], last = first + filled[lower], j = first;
+                while (j < last && neighbours[j] != upper) j++;
+                if (j < last) continue;
+                neighbours[last] = upper;
+                filled[lower]++;
+                edges.add(from, to);
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Remove vertices that aren't used by any edge and renumber the edges.
+     * @param vertices vertices referenced by the edges
+     * @param edges edges whose vertex indices are updated in place
+     * @return used vertices in their original order
+     */
+    private static Vector[] removeUnusedVertices(Vector[] vertices, EdgeBuffer edges) {
+        int[] newIndex = new int[vertices.length];
+        Arrays.fill(newIndex, -1);
+        int[] data = edges.getData();
+        int used = 0;
+        for (int i = 0; i < edges.size() * EdgeBuffer.STRIDE; i++) {
+            if (i % EdgeBuffer.STRIDE != EdgeBuffer.FROM && i % EdgeBuffer.STRIDE != EdgeBuffer.TO) continue;
+            if (newIndex[data[i]] == -1) newIndex[data[i]] = used++;
+            data[i] = newIndex[data[i]];
+        }
+
+        Vector[] result = new Vector[used];
+        for (int i = 0; i < vertices.length; i++) if (newIndex[i] != -1) result[newIndex[i]] = vertices[i];
+        return result;
+    }
+
+    /**
+     * Pack the quantized coordinates of a vertex into a single key, 21 bits per coordinate.
+     * @param x x coordinate of the vertex
+     * @param y y coordinate of the vertex
+     * @param z z coordinate of the vertex
+     * @param scale factor mapping the coordinates into [-{@link #QUANTIZATION}, {@link #QUANTIZATION}]
+     * @return key of the quantization cell of the vertex
+     */
+    private static long quantize(float x, float y, float z, float scale) {
+        long qx = Math.round(x * scale) + (1 << 20);
+        long qy = Math.round(y * scale) + (1 << 20);
+        long qz = Math.round(z * scale) + (1 << 20);
+        return (qx << 42) | (qy << 21) | qz;
     }
 
     /**
-     * Transform STL object Vertex representing vertex into Vector class.
-     * @param v Vertex object to copy from
-     * @return new Vector object containing the same data as the Vertex object
+     * Get the number of triangles in the loaded file. Before welding, the object would have 3 vertices and 3 edges
+     * per triangle.
+     * @return number of triangles in the file
      */
-    private Vector vertexToVector(Vertex v) {
-        return new Vector(v.getX(), v.getY(), v.getZ());
+    public int getTriangleCount() {
+        return triangleCount;
     }
 
     /**
@@ -87,9 +289,35 @@ public class STLObject extends Object3D {
      */
     @Override
     public int[][] getEdges() {
+        return edges.toArrays();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EdgeBuffer getEdgeBuffer() {
         return edges;
     }
 
+    /**
+     * Levels of detail built by clustering the vertices of the loaded mesh.
+     * @return levels of detail of the edges
+     */
+    @Override
+    public EdgeLevels getEdgeLevels() {
+        return edgeLevels;
+    }
+
+    /**
+     * Silhouette of the loaded mesh, only in silhouette mode.
+     * @return silhouette edges of the mesh, null if the object isn't in silhouette mode
+     */
+    @Override
+    public SilhouetteEdges getSilhouetteEdges() {
+        return silhouetteEdges;
+    }
+
     /**
      * {@inheritDoc}
      */
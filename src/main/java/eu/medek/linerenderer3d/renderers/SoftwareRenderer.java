@@ -0,0 +1,224 @@
+package eu.medek.linerenderer3d.renderers;
+
+import eu.medek.linerenderer3d.Renderer;
+import eu.medek.linerenderer3d.system.Color;
+import eu.medek.linerenderer3d.system.LineClipper;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * {@link Renderer} rasterizing lines into an ARGB framebuffer in memory, usable without any display or GPU (for
+ * example for rendering thumbnails on a server or as a deterministic backend for benchmarks).
+ * <br>
+ * Lines are drawn using a DDA stepping along the major axis. For lines with stroke weight above 1 a run of pixels
+ * along the minor axis is filled at each step, with its length chosen so that the line has approximately the stroke
+ * weight measured perpendicular to it. Pixels are overwritten without antialiasing or blending, so the output depends
+ * only on the drawn lines.
+ */
+public class SoftwareRenderer implements Renderer {
+    /**
+     * Size of the framebuffer.
+     */
+    private final int width, height;
+
+    /**
+     * Pixels in ARGB format, row by row.
+     */
+    private final int[] pixels;
+
+    /**
+     * Current stroke color (0xffRRGGBB).
+     */
+    private int strokeColor = 0xffffffff;
+
+    /**
+     * Current stroke weight.
+     */
+    private float strokeWeight = 1;
+
+    /**
+     * Scratch array for clipped lines.
+     */
+    private final float[] clippedLine = new float[4];
+
+    /**
+     * Create a renderer with a framebuffer filled with black.
+     * @param width width of the framebuffer
+     * @param height height of the framebuffer
+     */
+    public SoftwareRenderer(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Framebuffer size has to be positive, got " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        clear(0xff000000);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setStrokeColor(int r, int g, int b) {
+        strokeColor = Color.fromRGB(r, g, b);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setStrokeWeight(float strokeWeight) {
+        this.strokeWeight = strokeWeight;
+    }
+
+    /**
+     * Draw a line between two points using the current stroke color and weight. Parts of the line outside of the
+     * framebuffer are clipped.
+     * @param x0 X coordinate of the first point
+     * @param y0 Y coordinate of the first point
+     * @param x1 X coordinate of the second point
+     * @param y1 Y coordinate of the second point
+     */
+    @Override
+    public void line(float x0, float y0, float x1, float y1) {
+        if (LineClipper.clip(x0, y0, x1, y1, 0, 0, width - 1, height - 1, clippedLine))
+            rasterize(clippedLine[0], clippedLine[1], clippedLine[2], clippedLine[3], strokeColor, strokeWeight);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Lines are rasterized directly, without going through {@link #setStrokeColor}, {@link #setStrokeWeight} and
+     * {@link #line} for each of them. The current stroke is left at the values of the last line.
+     */
+    @Override
+    public void lines(float[] coordinates, int[] colors, float[] weights, int count) {
+        for (int i = 0; i < count; i++) {
+            if (LineClipper.clip(coordinates[4*i], coordinates[4*i+1], coordinates[4*i+2], coordinates[4*i+3], 0, 0, width - 1, height - 1, clippedLine))
+                rasterize(clippedLine[0], clippedLine[1], clippedLine[2], clippedLine[3], 0xff000000 | colors[i], weights[i]);
+        }
+        if (count > 0) {
+            strokeColor = 0xff000000 | colors[count - 1];
+            strokeWeight = weights[count - 1];
+        }
+    }
+
+    /**
+     * Fill the whole framebuffer with a color.
+     * @param color color in ARGB format
+     */
+    public void clear(int color) {
+        Arrays.fill(pixels, color);
+    }
+
+    /**
+     * Get the framebuffer.
+     * @return pixels in ARGB format, row by row (index = y * width + x), modifying the array modifies the framebuffer
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Copy the framebuffer into a new image.
+     * @return image of type {@link BufferedImage#TYPE_INT_ARGB} with the content of the framebuffer
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * Write the framebuffer into a PNG file.
+     * @param path path of the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void writePNG(Path path) throws IOException {
+        if (!ImageIO.write(toImage(), "png", path.toFile())) throw new IOException("No PNG writer available");
+    }
+
+    /**
+     * Rasterize a line with both endpoints inside of the framebuffer.
+     * @param x0 X coordinate of the first point
+     * @param y0 Y coordinate of the first point
+     * @param x1 X coordinate of the second point
+     * @param y1 Y coordinate of the second point
+     * @param color color in ARGB format
+     * @param weight stroke weight
+     */
+    private void rasterize(float x0, float y0, float x1, float y1, int color, float weight) {
+        float dx = x1 - x0, dy = y1 - y0;
+        float length = (float)Math.sqrt(dx*dx + dy*dy);
+
+        if (Math.abs(dx) >= Math.abs(dy)) {
+            if (x0 > x1) {
+                float swap = x0; x0 = x1; x1 = swap;
+                swap = y0; y0 = y1; y1 = swap;
+            }
+            int thickness = getThickness(weight, length, x1 - x0);
+            float slope = (x1 > x0) ? (y1 - y0) / (x1 - x0) : 0;
+            int start = round(x0), end = round(x1);
+            float y = y0 + (start - x0) * slope - (thickness - 1) * 0.5f;
+            for (int x = start; x <= end; x++, y += slope) {
+                int first = Math.max(round(y), 0), last = Math.min(round(y) + thickness, height);
+                for (int index = first * width + x; first < last; first++, index += width) pixels[index] = color;
+            }
+        } else {
+            if (y0 > y1) {
+                float swap = x0; x0 = x1; x1 = swap;
+                swap = y0; y0 = y1; y1 = swap;
+            }
+            int thickness = getThickness(weight, length, y1 - y0);
+            float slope = (x1 - x0) / (y1 - y0);
+            int start = round(y0), end = round(y1);
+            float x = x0 + (start - y0) * slope - (thickness - 1) * 0.5f;
+            for (int y = start; y <= end; y++, x += slope) {
+                int first = Math.max(round(x), 0), last = Math.min(round(x) + thickness, width);
+                int row = y * width;
+                if (first < last) Arrays.fill(pixels, row + first, row + last, color);
+            }
+        }
+    }
+
+    /**
+     * Calculate the number of pixels filled along the minor axis at each step, so that the line has approximately the
+     * given weight measured perpendicular to it.
+     * @param weight stroke weight
+     * @param length length of the line
+     * @param major length of the line along its major axis
+     * @return number of pixels filled at each step, at least 1
+     */
+    private int getThickness(float weight, float length, float major) {
+        if (!(weight > 1)) return 1;
+        float thickness = (major > 0) ? weight * length / major : weight;
+        return Math.min(round(thickness), Math.max(width, height));
+    }
+
+    /**
+     * Round a coordinate to the nearest pixel.
+     * @param value coordinate
+     * @return index of the nearest pixel
+     */
+    private static int round(float value) {
+        return (int)Math.floor(value + 0.5f);
+    }
+}
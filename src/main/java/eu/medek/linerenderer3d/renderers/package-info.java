@@ -0,0 +1,4 @@
+/**
+ * Implementations of the {@link eu.medek.linerenderer3d.Renderer} interface that don't depend on any graphics library.
+ */
+package eu.medek.linerenderer3d.renderers;
\ No newline at end of file
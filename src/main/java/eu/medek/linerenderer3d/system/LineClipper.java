@@ -0,0 +1,114 @@
+package eu.medek.linerenderer3d.system;
+
+/**
+ * Class containing methods for clipping 2D lines to an axis aligned rectangle using the Cohen-Sutherland algorithm
+ * (https://en.wikipedia.org/wiki/Cohen%E2%80%93Sutherland_algorithm). Each endpoint gets an outcode with one bit for
+ * each side of the rectangle it lies beyond. Lines with both outcodes zero are accepted, lines with both endpoints
+ * beyond the same side are rejected using only comparisons, other lines are cut at the sides one by one. Nothing gets
+ * allocated.
+ */
+public class LineClipper {
+    /**
+     * Outcode bit - point is left of the rectangle.
+     */
+    private static final int LEFT = 1;
+
+    /**
+     * Outcode bit - point is right of the rectangle.
+     */
+    private static final int RIGHT = 2;
+
+    /**
+     * Outcode bit - point is above the rectangle (smaller y).
+     */
+    private static final int TOP = 4;
+
+    /**
+     * Outcode bit - point is below the rectangle (larger y).
+     */
+    private static final int BOTTOM = 8;
+
+    /**
+     * Maximum number of cuts before the line is rejected.
+     */
+    private static final int MAX_ITERATIONS = 8;
+
+    /**
+     * Calculate the outcode of a point.
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @param xMin left side of the rectangle
+     * @param yMin top side of the rectangle
+     * @param xMax right side of the rectangle
+     * @param yMax bottom side of the rectangle
+     * @return outcode of the point, 0 if it is inside the rectangle (including its border)
+     */
+    public static int outcode(float x, float y, float xMin, float yMin, float xMax, float yMax) {
+        int code = 0;
+        if (x < xMin) code |= LEFT;
+        else if (x > xMax) code |= RIGHT;
+        if (y < yMin) code |= TOP;
+        else if (y > yMax) code |= BOTTOM;
+        return code;
+    }
+
+    /**
+     * Clip the line specified by its endpoints (x0,y0) and (x1,y1) to the rectangle [xMin,xMax]x[yMin,yMax].
+     * @param x0 x coordinate of the first endpoint
+     * @param y0 y coordinate of the first endpoint
+     * @param x1 x coordinate of the second endpoint
+     * @param y1 y coordinate of the second endpoint
+     * @param xMin left side of the rectangle
+     * @param yMin top side of the rectangle
+     * @param xMax right side of the rectangle
+     * @param yMax bottom side of the rectangle
+     * @param result array with length at least 4, the clipped line is written into it as [x0, y0, x1, y1] (only if
+     *               the line is at least partially inside)
+     * @return true if part of the line is inside the rectangle, false otherwise
+     */
+    public static boolean clip(float x0, float y0, float x1, float y1, float xMin, float yMin, float xMax, float yMax, float[] result) {
+        int code0 = outcode(x0, y0, xMin, yMin, xMax, yMax);
+        int code1 = outcode(x1, y1, xMin, yMin, xMax, yMax);
+
+        for (int iteration = 0; (code0 | code1) != 0; iteration++) {
+            // each endpoint needs at most two cuts, more iterations can only be caused by rounding errors
+            if ((code0 & code1) != 0 || iteration == MAX_ITERATIONS) return false;
+
+            // move the endpoint that is outside onto the side it lies beyond
+            int code = (code0 != 0) ? code0 : code1;
+            float x, y;
+            if ((code & BOTTOM) != 0) {
+                x = x0 + (x1 - x0) * (yMax - y0) / (y1 - y0);
+                y = yMax;
+            } else if ((code & TOP) != 0) {
+                x = x0 + (x1 - x0) * (yMin - y0) / (y1 - y0);
+                y = yMin;
+            } else if ((code & RIGHT) != 0) {
+                y = y0 + (y1 - y0) * (xMax - x0) / (x1 - x0);
+                x = xMax;
+            } else {
+                y = y0 + (y1 - y0) * (xMin - x0) / (x1 - x0);
+                x = xMin;
+            }
+
+            // infinite or NaN input coordinates can't be clipped reliably
+            if (Float.isNaN(x) || Float.isNaN(y)) return false;
+
+            if (code == code0) {
+                x0 = x;
+                y0 = y;
+                code0 = outcode(x0, y0, xMin, yMin, xMax, yMax);
+            } else {
+                x1 = x;
+                y1 = y;
+                code1 = outcode(x1, y1, xMin, yMin, xMax, yMax);
+            }
+        }
+
+        result[0] = x0;
+        result[1] = y0;
+        result[2] = x1;
+        result[3] = y1;
+        return true;
+    }
+}
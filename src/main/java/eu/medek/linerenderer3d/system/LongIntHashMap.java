@@ -0,0 +1,112 @@
+package eu.medek.linerenderer3d.system;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long keys to non-negative int values stored in primitive arrays (open addressing with linear probing),
+ * so that adding millions of entries doesn't create a boxed object for every key and value. Entries can't be removed.
+ */
+public class LongIntHashMap {
+    /**
+     * Value marking an empty slot, also returned when a key isn't in the map.
+     */
+    public static final int MISSING = -1;
+
+    /**
+     * Keys of the slots.
+     */
+    private long[] keys;
+
+    /**
+     * Values of the slots, {@link #MISSING} in empty slots.
+     */
+    private int[] values;
+
+    /**
+     * Number of entries in the map.
+     */
+    private int size = 0;
+
+    /**
+     * Create an empty map.
+     * @param expectedSize number of entries that can be added without resizing the map
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2L && capacity < (1 << 30)) capacity *= 2;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+    }
+
+    /**
+     * Spread the bits of a key (Fibonacci hashing) so that keys differing only in their upper bits don't collide.
+     * @param key key to hash
+     * @return hash of the key
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    /**
+     * Find the slot of a key.
+     * @param key key to find
+     * @return index of the slot containing the key or of the empty slot where it belongs
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (values[i] != MISSING && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Get the value of a key.
+     * @param key key to find
+     * @return value of the key or {@link #MISSING} if the key isn't in the map
+     */
+    public int get(long key) {
+        return values[slot(key)];
+    }
+
+    /**
+     * Add an entry unless the key is already in the map.
+     * @param key key of the entry
+     * @param value non-negative value of the entry
+     * @return previous value of the key (which is kept) or {@link #MISSING} if the entry was added
+     */
+    public int putIfAbsent(long key, int value) {
+        if (value < 0) throw new IllegalArgumentException("Values have to be non-negative");
+        int i = slot(key);
+        if (values[i] != MISSING) return values[i];
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) grow();
+        return MISSING;
+    }
+
+    /**
+     * @return the number of entries in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Double the number of slots and reinsert all entries.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, MISSING);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == MISSING) continue;
+            int j = slot(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
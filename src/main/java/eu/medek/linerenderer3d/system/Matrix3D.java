@@ -75,6 +75,27 @@ public class Matrix3D {
         return result;
     }
 
+    /**
+     * Multiply two matrices without allocating - the same as {@link #multiply(float[][], float[][])}, but the result is
+     * written into a supplied 4x4 matrix. Result can't be the same array as either of the inputs!
+     * @param matrixA first matrix
+     * @param matrixB second matrix
+     * @param result matrix to write <code>matrixA * matrixB</code> into
+     * @return the result matrix (for chain operations)
+     */
+    public static float[][] multiplyInto(float[][] matrixA, float[][] matrixB, float[][] result) {
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                float value = 0;
+                for (int k = 0; k < 4; k++) {
+                    value += matrixA[i][k]*matrixB[k][j];
+                }
+                result[i][j] = value;
+            }
+        }
+        return result;
+    }
+
     /**
      * Multiply a vector by a matrix from the left - in other words apply transformation specified by the matrix to the
      * vector. Dimensions need to match, there is no dimension check!
@@ -0,0 +1,235 @@
+package eu.medek.linerenderer3d.system;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable LSD radix sort of int values by int keys compared as unsigned numbers. Float keys can be converted using
+ * {@link #toAscendingKey} or {@link #toDescendingKey}. Keys are sorted 8 bits at a time, passes in which all keys share
+ * the same digit are skipped.
+ * <br>
+ * Each pass can be split into chunks processed on the common {@link ForkJoinPool} - every chunk counts its digits and
+ * then scatters its elements into its own precomputed part of each bucket, so the result is the same as when sorting
+ * sequentially. Scratch buffers are kept in the object and reused, so sorting sequentially doesn't allocate once the
+ * buffers are large enough.
+ */
+public class RadixSort {
+    /**
+     * Number of bits sorted in one pass.
+     */
+    private static final int DIGIT_BITS = 8;
+
+    /**
+     * Number of buckets in one pass.
+     */
+    private static final int BUCKETS = 1 << DIGIT_BITS;
+
+    /**
+     * Number of passes needed to sort 32 bit keys.
+     */
+    private static final int PASSES = 32 / DIGIT_BITS;
+
+    /**
+     * Scratch buffers for keys and values.
+     */
+    private int[] keysTemp = new int[0], valuesTemp = new int[0];
+
+    /**
+     * Histogram of digits of each chunk, later converted to the output offset of each chunk in each bucket.
+     */
+    private int[] histograms = new int[0];
+
+    /**
+     * Convert float to a key, so that sorting keys as unsigned ints in ascending order sorts the floats in ascending
+     * order.
+     * @param value value to convert
+     * @return key representing the value
+     */
+    public static int toAscendingKey(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        return bits ^ ((bits >> 31) | 0x80000000);
+    }
+
+    /**
+     * Convert float to a key, so that sorting keys as unsigned ints in ascending order sorts the floats in descending
+     * order.
+     * @param value value to convert
+     * @return key representing the value
+     */
+    public static int toDescendingKey(float value) {
+        return ~toAscendingKey(value);
+    }
+
+    /**
+     * Sort the first count values by their keys. Both arrays get reordered. Sort is stable - values with equal keys
+     * keep their relative order.
+     * @param keys keys compared as unsigned ints
+     * @param values values to reorder along with the keys
+     * @param count number of elements to sort
+     * @param chunks number of chunks to split each pass into, 1 for sorting sequentially on the calling thread
+     */
+    public void sort(int[] keys, int[] values, int count, int chunks) {
+        if (count < 2) return;
+        chunks = Math.max(1, Math.min(chunks, count));
+        if (keysTemp.length < count) {
+            keysTemp = new int[count];
+            valuesTemp = new int[count];
+        }
+        if (histograms.length < chunks * BUCKETS) histograms = new int[chunks * BUCKETS];
+
+        int[] srcKeys = keys, srcValues = values, dstKeys = keysTemp, dstValues = valuesTemp;
+        for (int pass = 0; pass < PASSES; pass++) {
+            int shift = pass * DIGIT_BITS;
+            if (!prepareOffsets(srcKeys, count, chunks, shift)) continue;
+
+            if (chunks == 1) scatter(srcKeys, srcValues, dstKeys, dstValues, 0, count, shift, 0);
+            else ForkJoinPool.commonPool().invoke(new PassTask(srcKeys, srcValues, dstKeys, dstValues, count, chunks, shift, false, 0, chunks));
+
+            int[] swapKeys = srcKeys, swapValues = srcValues;
+            srcKeys = dstKeys;
+            srcValues = dstValues;
+            dstKeys = swapKeys;
+            dstValues = swapValues;
+        }
+
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, count);
+            System.arraycopy(srcValues, 0, values, 0, count);
+        }
+    }
+
+    /**
+     * Count the digits of each chunk and convert the counts to output offsets of each chunk in each bucket.
+     * @param keys keys to count
+     * @param count number of elements
+     * @param chunks number of chunks
+     * @param shift position of the digit in the key
+     * @return false if all keys have the same digit (the pass can be skipped), true otherwise
+     */
+    private boolean prepareOffsets(int[] keys, int count, int chunks, int shift) {
+        if (chunks == 1) count(keys, 0, count, shift, 0);
+        else ForkJoinPool.commonPool().invoke(new PassTask(keys, null, null, null, count, chunks, shift, true, 0, chunks));
+
+        int offset = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            int bucketCount = 0;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int index = chunk * BUCKETS + bucket;
+                int chunkCount = histograms[index];
+                histograms[index] = offset;
+                offset += chunkCount;
+                bucketCount += chunkCount;
+            }
+            if (bucketCount == count) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Count the digits of keys in the range [start, end) into the histogram of a chunk.
+     * @param keys keys to count
+     * @param start index of the first element of the chunk
+     * @param end index after the last element of the chunk
+     * @param shift position of the digit in the key
+     * @param chunk index of the chunk
+     */
+    private void count(int[] keys, int start, int end, int shift, int chunk) {
+        int base = chunk * BUCKETS;
+        for (int i = base; i < base + BUCKETS; i++) histograms[i] = 0;
+        for (int i = start; i < end; i++) histograms[base + ((keys[i] >>> shift) & (BUCKETS - 1))]++;
+    }
+
+    /**
+     * Move the elements in the range [start, end) to their positions given by the offsets of the chunk.
+     * @param srcKeys keys to move
+     * @param srcValues values to move
+     * @param dstKeys output keys
+     * @param dstValues output values
+     * @param start index of the first element of the chunk
+     * @param end index after the last element of the chunk
+     * @param shift position of the digit in the key
+     * @param chunk index of the chunk
+     */
+    private void scatter(int[] srcKeys, int[] srcValues, int[] dstKeys, int[] dstValues, int start, int end, int shift, int chunk) {
+        int base = chunk * BUCKETS;
+        for (int i = start; i < end; i++) {
+            int key = srcKeys[i];
+            int position = histograms[base + ((key >>> shift) & (BUCKETS - 1))]++;
+            dstKeys[position] = key;
+            dstValues[position] = srcValues[i];
+        }
+    }
+
+    /**
+     * Task running the counting or the scattering step of one pass for a range of chunks.
+     */
+    private class PassTask extends RecursiveAction {
+        /**
+         * Tasks are never serialized, the version only satisfies {@link java.io.Serializable}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Arrays of the pass (destination arrays are unused when counting).
+         */
+        private final int[] srcKeys, srcValues, dstKeys, dstValues;
+
+        /**
+         * Number of elements, number of chunks and position of the digit in the key.
+         */
+        private final int count, chunks, shift;
+
+        /**
+         * True to count the digits, false to scatter the elements.
+         */
+        private final boolean counting;
+
+        /**
+         * Range of chunks [firstChunk, endChunk) to process.
+         */
+        private final int firstChunk, endChunk;
+
+        /**
+         * @param srcKeys keys to process
+         * @param srcValues values to process
+         * @param dstKeys output keys
+         * @param dstValues output values
+         * @param count number of elements
+         * @param chunks number of chunks
+         * @param shift position of the digit in the key
+         * @param counting true to count the digits, false to scatter the elements
+         * @param firstChunk index of the first chunk to process
+         * @param endChunk index after the last chunk to process
+         */
+        PassTask(int[] srcKeys, int[] srcValues, int[] dstKeys, int[] dstValues, int count, int chunks, int shift, boolean counting, int firstChunk, int endChunk) {
+            this.srcKeys = srcKeys;
+            this.srcValues = srcValues;
+            this.dstKeys = dstKeys;
+            this.dstValues = dstValues;
+            this.count = count;
+            this.chunks = chunks;
+            this.shift = shift;
+            this.counting = counting;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void compute() {
+            if (endChunk - firstChunk > 1) {
+                int middle = (firstChunk + endChunk) >>> 1;
+                invokeAll(new PassTask(srcKeys, srcValues, dstKeys, dstValues, count, chunks, shift, counting, firstChunk, middle),
+                        new PassTask(srcKeys, srcValues, dstKeys, dstValues, count, chunks, shift, counting, middle, endChunk));
+                return;
+            }
+
+            int start = (int)((long)count * firstChunk / chunks);
+            int end = (int)((long)count * (firstChunk + 1) / chunks);
+            if (counting) count(srcKeys, start, end, shift, firstChunk);
+            else scatter(srcKeys, srcValues, dstKeys, dstValues, start, end, shift, firstChunk);
+        }
+    }
+}
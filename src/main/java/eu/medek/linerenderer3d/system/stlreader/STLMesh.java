@@ -0,0 +1,97 @@
+package eu.medek.linerenderer3d.system.stlreader;
+
+/**
+ * Triangles of an STL file stored in primitive arrays, without an object per triangle or vertex.
+ */
+public class STLMesh {
+    /**
+     * Coordinates of the vertices, 9 values per triangle - [x1, y1, z1, x2, y2, z2, x3, y3, z3].
+     */
+    private final float[] vertices;
+
+    /**
+     * Normal vectors of the triangles as specified in the STL file, 3 values per triangle - [normalX, normalY, normalZ],
+     * null if the normals weren't read.
+     */
+    private final float[] normals;
+
+    /**
+     * Basic constructor.
+     * @param vertices coordinates of the vertices, 9 values per triangle
+     * @param normals normal vectors of the triangles, 3 values per triangle, null if the normals weren't read
+     */
+    public STLMesh(float[] vertices, float[] normals) {
+        if (vertices.length % 9 != 0 || (normals != null && vertices.length != 3 * normals.length)) {
+            throw new IllegalArgumentException("Expected 9 vertex coordinates and 3 normal coordinates per triangle");
+        }
+        this.vertices = vertices;
+        this.normals = normals;
+    }
+
+    /**
+     * Convert triangles to the primitive representation.
+     * @param triangles triangles to convert
+     * @return new mesh with the same triangles
+     */
+    public static STLMesh of(STLTriangle[] triangles) {
+        float[] vertices = new float[triangles.length * 9], normals = new float[triangles.length * 3];
+        for (int i = 0; i < triangles.length; i++) {
+            Vertex[] points = {triangles[i].getP1(), triangles[i].getP2(), triangles[i].getP3()};
+            for (int j = 0; j < 3; j++) {
+                vertices[9*i + 3*j] = points[j].getX();
+                vertices[9*i + 3*j + 1] = points[j].getY();
+                vertices[9*i + 3*j + 2] = points[j].getZ();
+            }
+            normals[3*i] = triangles[i].getNormalX();
+            normals[3*i + 1] = triangles[i].getNormalY();
+            normals[3*i + 2] = triangles[i].getNormalZ();
+        }
+        return new STLMesh(vertices, normals);
+    }
+
+    /**
+     * Convert the mesh to an object per triangle. Triangles of a mesh without normals get zero normals.
+     * @return new triangles
+     */
+    public STLTriangle[] toTriangles() {
+        STLTriangle[] triangles = new STLTriangle[getTriangleCount()];
+        for (int i = 0; i < triangles.length; i++) {
+            triangles[i] = (normals == null)
+                    ? new STLTriangle(getVertex(3*i), getVertex(3*i + 1), getVertex(3*i + 2), 0, 0, 0)
+                    : new STLTriangle(getVertex(3*i), getVertex(3*i + 1), getVertex(3*i + 2),
+                            normals[3*i], normals[3*i + 1], normals[3*i + 2]);
+        }
+        return triangles;
+    }
+
+    /**
+     * @param index index of the vertex, vertices of triangle i have indices 3*i, 3*i+1 and 3*i+2
+     * @return new object with the coordinates of the vertex
+     */
+    private Vertex getVertex(int index) {
+        return new Vertex(vertices[3*index], vertices[3*index + 1], vertices[3*index + 2]);
+    }
+
+    /**
+     * @return the number of triangles
+     */
+    public int getTriangleCount() {
+        return vertices.length / 9;
+    }
+
+    /**
+     * Getter for the coordinates of the vertices, vertex j (0 to 2) of triangle i starts at index 9*i + 3*j.
+     * @return coordinates of the vertices, 9 values per triangle, don't modify them
+     */
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * Getter for the normal vectors of the triangles as specified in the STL file.
+     * @return normal vectors, 3 values per triangle, don't modify them; null if the normals weren't read
+     */
+    public float[] getNormals() {
+        return normals;
+    }
+}
@@ -1,18 +1,44 @@
 package eu.medek.linerenderer3d.system.stlreader;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Locale;
-import java.util.Scanner;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Class used for parsing STL files.
+ * <br>
+ * Binary files are memory-mapped and decoded straight into the primitive arrays of an {@link STLMesh}, the format is
+ * detected from the header and the size of the file without reading the rest of it. Files larger than 2 GB are mapped
+ * in several parts.
+ * <br>
+ * Meshes can be read without their normals ({@link #tryReadMesh(boolean)}) or into arrays supplied by the caller
+ * ({@link #tryRead(float[], float[])}), so that loading a mesh doesn't need more memory than the arrays holding it.
+ * A {@link TriangleListener} can be notified about the triangles while they are being read.
  */
 public class STLReader {
+    /**
+     * Size of the header of a binary file - 80 bytes of arbitrary data followed by the number of triangles.
+     */
+    private static final int BINARY_HEADER_SIZE = 84;
+
+    /**
+     * Size of one triangle in a binary file - normal and 3 vertices (12 floats) followed by 2 bytes of attributes.
+     */
+    private static final int BINARY_TRIANGLE_SIZE = 50;
+
+    /**
+     * Maximum number of triangles in a file read into an {@link STLMesh}, given by the maximum length of an array.
+     */
+    static final int MAX_TRIANGLES = (Integer.MAX_VALUE - 8) / 9;
+
+    /**
+     * Number of triangles read between two calls of a {@link TriangleListener}.
+     */
+    static final int BATCH_TRIANGLES = 1 << 14;
+
     /**
      * Path to the file to be parsed.
      */
@@ -32,13 +58,105 @@ public class STLReader {
      * @throws IOException if any error arises while reading the file
      */
     public STLTriangle[] tryRead() throws IOException {
-        byte[] fileBytes = Files.readAllBytes(file);
-        if (fileBytes.length < 84) return readAsTextFile();
+        return isBinaryFile() ? readAsBinaryFile() : readAsTextFile();
+    }
 
-        int triangleCount = bytesToInt(fileBytes, 80);
+    /**
+     * Try to determine whether specified file is binary or text and read it as such into primitive arrays.
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file
+     */
+    public STLMesh tryReadMesh() throws IOException {
+        return tryReadMesh(true);
+    }
 
-        if (fileBytes.length == 84 + 50*triangleCount) return readAsBinaryFile();
-        else return readAsTextFile();
+    /**
+     * Try to determine whether specified file is binary or text and read it as such into primitive arrays, optionally
+     * without the normals.
+     * @param withNormals option to read the normals, without them the mesh has null normals
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file
+     */
+    public STLMesh tryReadMesh(boolean withNormals) throws IOException {
+        return tryReadMesh(withNormals, null);
+    }
+
+    /**
+     * Try to determine whether specified file is binary or text and read it as such into primitive arrays, notifying
+     * a listener about every batch of read triangles.
+     * @param withNormals option to read the normals, without them the mesh has null normals
+     * @param listener listener notified about the triangles while they are being read, null for none
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file
+     */
+    public STLMesh tryReadMesh(boolean withNormals, TriangleListener listener) throws IOException {
+        return isBinaryFile() ? readAsBinaryMesh(withNormals, listener) : readAsTextMesh(withNormals, listener);
+    }
+
+    /**
+     * Try to determine whether specified file is binary or text and read it as such into arrays supplied by the
+     * caller. If the file has more triangles than the arrays can hold, only the first ones are stored. Binary files are
+     * decoded directly into the arrays, so calling this with empty arrays is a cheap way to get the number of triangles
+     * of a binary file. Text files are parsed directly into the arrays too, after their facets are counted.
+     * @param vertices output array for the coordinates of the vertices, 9 values per triangle
+     * @param normals output array for the normal vectors, 3 values per triangle, null to skip the normals
+     * @return number of triangles in the file
+     * @throws IOException if any error arises while reading the file
+     */
+    public int tryRead(float[] vertices, float[] normals) throws IOException {
+        if (!isBinaryFile()) return STLTextParser.parse(file, -1, vertices, normals);
+
+        int capacity = vertices.length / 9;
+        if (normals != null) capacity = Math.min(capacity, normals.length / 3);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int count = readCheckedTriangleCount(channel);
+            decodeTriangles(channel, Math.min(capacity, count), vertices, normals, null);
+            return count;
+        }
+    }
+
+    /**
+     * Determine whether the specified file is binary - its size has to match the number of triangles in its header.
+     * @return true if the file is binary, false if it should be read as a text file
+     * @throws IOException if any error arises while reading the file
+     */
+    public boolean isBinaryFile() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < BINARY_HEADER_SIZE) return false;
+            return size == BINARY_HEADER_SIZE + BINARY_TRIANGLE_SIZE * readTriangleCount(channel);
+        }
+    }
+
+    /**
+     * Read the number of triangles from the header of a binary file.
+     * @param channel channel of the file
+     * @return number of triangles as an unsigned number
+     * @throws IOException if any error arises while reading the file
+     */
+    private static long readTriangleCount(FileChannel channel) throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (count.hasRemaining()) {
+            int read = channel.read(count, BINARY_HEADER_SIZE - 4 + count.position());
+            if (read < 0) throw new IOException("Unexpected end of file");
+        }
+        return Integer.toUnsignedLong(count.getInt(0));
+    }
+
+    /**
+     * Read the number of triangles from the header of a binary file and check it against the size of the file.
+     * @param channel channel of the file
+     * @return number of triangles
+     * @throws IOException if any error arises while reading the file, if the file is shorter than its header says or
+     *                     if the triangles don't fit into an array
+     */
+    private static int readCheckedTriangleCount(FileChannel channel) throws IOException {
+        long triangleCount = readTriangleCount(channel);
+        if (channel.size() < BINARY_HEADER_SIZE + BINARY_TRIANGLE_SIZE * triangleCount) {
+            throw new IOException("File is shorter than the number of triangles in its header");
+        }
+        if (triangleCount > MAX_TRIANGLES) throw new IOException("Too many triangles: " + triangleCount);
+        return (int)triangleCount;
     }
 
     /**
@@ -47,108 +165,142 @@ public class STLReader {
      * @throws IOException if any error arises while reading the file
      */
     public STLTriangle[] readAsBinaryFile() throws IOException {
-        byte[] fileBytes = Files.readAllBytes(file);
-
-        int triangleCount = bytesToInt(fileBytes, 80);
-        STLTriangle[] triangles = new STLTriangle[triangleCount];
-
-        for (int i = 0, offset = 84; i < triangleCount; i++, offset += 12*4+2) {
-            float normalX = bytesToFloat(fileBytes, offset);
-            float normalY = bytesToFloat(fileBytes, offset + 4);
-            float normalZ = bytesToFloat(fileBytes, offset + 8);
-            Vertex p1 = readBinaryVertex(fileBytes, offset + 12);
-            Vertex p2 = readBinaryVertex(fileBytes, offset + 24);
-            Vertex p3 = readBinaryVertex(fileBytes, offset + 36);
-            triangles[i] = new STLTriangle(p1, p2, p3, normalX, normalY, normalZ);
-        }
+        return readAsBinaryMesh().toTriangles();
+    }
 
-        return triangles;
+    /**
+     * Read the specified file as a binary file into primitive arrays. The file is memory-mapped (in parts of at most
+     * 2 GB) and the floats are decoded directly from the mapped little endian buffer.
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file or if the file is shorter than its header says
+     */
+    public STLMesh readAsBinaryMesh() throws IOException {
+        return readAsBinaryMesh(true);
     }
 
     /**
-     * Read the specified file as a text file.
+     * Read the specified file as a binary file into primitive arrays, optionally without the normals.
+     * @param withNormals option to read the normals, without them the mesh has null normals
      * @return triangles specified in the file
-     * @throws FileNotFoundException if any error arises while reading the file
+     * @throws IOException if any error arises while reading the file or if the file is shorter than its header says
      */
-    public STLTriangle[] readAsTextFile() throws FileNotFoundException {
-        Scanner fileScanner = new Scanner(new FileInputStream(file.toFile()));
-        fileScanner.useLocale(Locale.US);
+    public STLMesh readAsBinaryMesh(boolean withNormals) throws IOException {
+        return readAsBinaryMesh(withNormals, null);
+    }
 
-        ArrayList<STLTriangle> trianglesList = new ArrayList<>();
+    /**
+     * Read the specified file as a binary file into primitive arrays, notifying a listener about every batch of read
+     * triangles.
+     * @param withNormals option to read the normals, without them the mesh has null normals
+     * @param listener listener notified about the triangles while they are being read, null for none
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file or if the file is shorter than its header says
+     */
+    public STLMesh readAsBinaryMesh(boolean withNormals, TriangleListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int count = readCheckedTriangleCount(channel);
+            float[] vertices = new float[9 * count], normals = withNormals ? new float[3 * count] : null;
+            decodeTriangles(channel, count, vertices, normals, listener);
+            return new STLMesh(vertices, normals);
+        }
+    }
 
-        while (fileScanner.hasNext()) {
-            String token = fileScanner.next();
-            if ("facet".equals(token)) {
-                trianglesList.add(readTextTriangle(fileScanner));
-            }
+    /**
+     * Decode the first triangles of a binary file, the file is mapped in parts of at most 2 GB (or of
+     * {@link #BATCH_TRIANGLES} triangles with a listener, which is notified after every part).
+     * @param channel channel of the file
+     * @param count number of triangles to decode
+     * @param vertices output array for the coordinates of the vertices, 9 values per triangle
+     * @param normals output array for the normal vectors, 3 values per triangle, null to skip the normals
+     * @param listener listener notified about the triangles while they are being read, null for none
+     * @throws IOException if any error arises while reading the file
+     */
+    private static void decodeTriangles(FileChannel channel, int count, float[] vertices, float[] normals,
+                                        TriangleListener listener) throws IOException {
+        int trianglesPerPart = (listener == null) ? Integer.MAX_VALUE / BINARY_TRIANGLE_SIZE : BATCH_TRIANGLES;
+        for (int first = 0; first < count; first += trianglesPerPart) {
+            int partCount = Math.min(trianglesPerPart, count - first);
+            ByteBuffer part = channel.map(FileChannel.MapMode.READ_ONLY,
+                    BINARY_HEADER_SIZE + (long)BINARY_TRIANGLE_SIZE * first, (long)BINARY_TRIANGLE_SIZE * partCount);
+            part.order(ByteOrder.LITTLE_ENDIAN);
+            decodeTriangles(part, partCount, first, vertices, normals);
+            if (listener != null) listener.trianglesRead(vertices, first, partCount);
         }
+    }
 
-        return trianglesList.toArray(STLTriangle[]::new);
-    }
-
-    /**
-     * Read and create the next triangle from the text file.
-     * @param fileScanner scanner reading the text file
-     * @return next triangle
-     */
-    private STLTriangle readTextTriangle(Scanner fileScanner) {
-        String token;
-        ArrayList<Vertex> vertices = new ArrayList<>(3);
-        float normalX = 0, normalY = 0, normalZ = 0;
-        while (fileScanner.hasNext() && !"endfacet".equals(token = fileScanner.next())) {
-            switch (token) {
-                case "normal":
-                    normalX = fileScanner.nextFloat();
-                    normalY = fileScanner.nextFloat();
-                    normalZ = fileScanner.nextFloat();
-                    break;
-                case "vertex":
-                    float x = fileScanner.nextFloat();
-                    float y = fileScanner.nextFloat();
-                    float z = fileScanner.nextFloat();
-                    vertices.add(new Vertex(x, y, z));
-                    break;
+    /**
+     * Decode consecutive triangles of a binary file.
+     * @param buffer little endian buffer starting at the first triangle
+     * @param count number of triangles in the buffer
+     * @param first index of the first triangle in the file
+     * @param vertices output array for the coordinates of the vertices, 9 values per triangle
+     * @param normals output array for the normal vectors, 3 values per triangle, null to skip the normals
+     */
+    private static void decodeTriangles(ByteBuffer buffer, int count, int first, float[] vertices, float[] normals) {
+        for (int i = 0, offset = 0; i < count; i++, offset += BINARY_TRIANGLE_SIZE) {
+            int n = 3 * (first + i), v = 9 * (first + i);
+            if (normals != null) {
+                normals[n] = buffer.getFloat(offset);
+                normals[n + 1] = buffer.getFloat(offset + 4);
+                normals[n + 2] = buffer.getFloat(offset + 8);
             }
+            for (int j = 0; j < 9; j++) vertices[v + j] = buffer.getFloat(offset + 12 + 4*j);
         }
+    }
 
-        return new STLTriangle(vertices.get(0), vertices.get(1), vertices.get(2), normalX, normalY, normalZ);
+    /**
+     * Read the specified file as a text file.
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file
+     */
+    public STLTriangle[] readAsTextFile() throws IOException {
+        return readAsTextMesh().toTriangles();
+    }
+
+    /**
+     * Read the specified file as a text file into primitive arrays. The file is parsed directly from its bytes into
+     * arrays allocated with their final size, see {@link STLTextParser}.
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
+     */
+    public STLMesh readAsTextMesh() throws IOException {
+        return readAsTextMesh(true);
     }
 
     /**
-     * Read a vertex/point from the binary file.
-     * @param array array containing the file in byte format
-     * @param offset where to start reading
-     * @return vertex read from the binary file at specified offset
+     * Read the specified file as a text file into primitive arrays, optionally without the normals.
+     * @param withNormals option to store the normals, without them the mesh has null normals
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
      */
-    private Vertex readBinaryVertex(byte[] array, int offset) {
-        float x = bytesToFloat(array, offset);
-        float y = bytesToFloat(array, offset + 4);
-        float z = bytesToFloat(array, offset + 8);
-        return new Vertex(x, y, z);
+    public STLMesh readAsTextMesh(boolean withNormals) throws IOException {
+        return readAsTextMesh(withNormals, null);
     }
 
     /**
-     * Convert 4 bytes into int.
-     * @param array byte array
-     * @param offset where to start reading
-     * @return integer read from the array at specified offset in little endian
+     * Read the specified file as a text file into primitive arrays, notifying a listener about every batch of read
+     * triangles.
+     * @param withNormals option to store the normals, without them the mesh has null normals
+     * @param listener listener notified about the triangles while they are being read, null for none
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
      */
-    private static int bytesToInt(byte[] array, int offset) {
-        return  (array[3 + offset]<<24)&0xff000000|
-                (array[2 + offset]<<16)&0x00ff0000|
-                (array[1 + offset]<< 8)&0x0000ff00|
-                (array[offset])&0x000000ff;
+    public STLMesh readAsTextMesh(boolean withNormals, TriangleListener listener) throws IOException {
+        return STLTextParser.parse(file, withNormals, listener);
     }
 
     /**
-     * Convert 4 bytes into float.
-     * @param array byte array
-     * @param offset where to start reading
-     * @return float read from the array at specified offset in little endian
+     * Read the specified file as a text file into primitive arrays, split into the given number of byte ranges parsed
+     * in parallel. The result is the same for any number of ranges, the other methods choose it based on the size of
+     * the file, this one is meant for benchmarks and for checking the parallel parser.
+     * @param withNormals option to store the normals, without them the mesh has null normals
+     * @param ranges number of ranges parsed in parallel, 1 to parse sequentially on the calling thread
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
      */
-    private static float bytesToFloat(byte[] array, int offset) {
-        int intValue = bytesToInt(array, offset);
-        return Float.intBitsToFloat(intValue);
+    public STLMesh readAsTextMesh(boolean withNormals, int ranges) throws IOException {
+        if (ranges < 1) throw new IllegalArgumentException("Number of ranges has to be positive: " + ranges);
+        return STLTextParser.parse(file, ranges, withNormals, null);
     }
 
     /**
@@ -0,0 +1,709 @@
+package eu.medek.linerenderer3d.system.stlreader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parser of text STL files working directly on the bytes of the file. The file is read through a reused buffer, tokens
+ * (separated by whitespace) are compared with the keywords in place without creating Strings and floats are parsed
+ * by a fast path handling the usual decimal and scientific forms exactly, {@link Float#parseFloat} is only used for
+ * other forms and for the rare values that the fast path can't round correctly.
+ * <br>
+ * Large files are split into byte ranges starting at "facet" keywords, which are parsed in parallel on the common
+ * {@link ForkJoinPool} (each range reads the file independently using positional reads). The facets of every range
+ * are counted first, so that the output arrays can be allocated with their final size (or checked against the arrays
+ * supplied by the caller) and every range can write its triangles straight to its offset in them. The triangles are
+ * the same and in the same order as when parsing sequentially.
+ */
+class STLTextParser {
+    /**
+     * Keywords of the format.
+     */
+    private static final byte[] FACET = ascii("facet"), ENDFACET = ascii("endfacet"), NORMAL = ascii("normal"),
+            VERTEX = ascii("vertex");
+
+    /**
+     * Exact powers of ten representable as double.
+     */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    /**
+     * Largest mantissa that is an exact double.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * Files smaller than this number of bytes are always parsed sequentially.
+     */
+    private static final long PARALLEL_THRESHOLD = 4 << 20;
+
+    /**
+     * Minimum number of bytes in one range parsed in parallel.
+     */
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Channel of the parsed file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Position in the file where the range of this parser starts.
+     */
+    private final long start;
+
+    /**
+     * Position in the file after which no new facets are started.
+     */
+    private final long end;
+
+    /**
+     * Position in the file of the first byte in {@link #buffer}.
+     */
+    private long bufferOffset;
+
+    /**
+     * Buffer with a part of the file, valid between 0 and {@link #limit}.
+     */
+    private byte[] buffer;
+
+    /**
+     * Number of valid bytes in {@link #buffer}.
+     */
+    private int limit = 0;
+
+    /**
+     * Position of the next unread byte in {@link #buffer}.
+     */
+    private int position = 0;
+
+    /**
+     * True after the whole file was read into the buffer.
+     */
+    private boolean endOfFile = false;
+
+    /**
+     * Current token, [tokenStart, tokenEnd) in {@link #buffer}.
+     */
+    private int tokenStart = 0, tokenEnd = 0;
+
+    /**
+     * Number of "facet" keywords in the range, found by {@link #countFacets()}.
+     */
+    private int facetCount = 0;
+
+    /**
+     * Output array for the coordinates of the vertices, 9 values per triangle.
+     */
+    private float[] vertices;
+
+    /**
+     * Output array for the normal vectors, 3 values per triangle, null if the normals are skipped.
+     */
+    private float[] normals;
+
+    /**
+     * Index of the first triangle of the range in {@link #vertices} and {@link #normals}.
+     */
+    private int first = 0;
+
+    /**
+     * Number of triangles of the range that are stored in the output arrays, the others are parsed and dropped.
+     */
+    private int capacity = 0;
+
+    /**
+     * True if the output arrays belong to this parser and grow as needed (the range has to start at index 0 of them).
+     */
+    private boolean growing = false;
+
+    /**
+     * Number of parsed triangles.
+     */
+    private int triangleCount = 0;
+
+    /**
+     * Listener notified about every {@link STLReader#BATCH_TRIANGLES} parsed triangles, null for none.
+     */
+    private final TriangleListener listener;
+
+    /**
+     * Number of triangles already reported to the {@link #listener}.
+     */
+    private int reportedCount = 0;
+
+    /**
+     * Position in the file of the first token outside of a facet at or after {@link #end}, where parsing of the range
+     * stopped (size of the file if there is none).
+     */
+    private long stopPosition;
+
+    /**
+     * @param channel channel of the file to parse
+     * @param start position in the file where parsing starts
+     * @param end position in the file after which no new facets are started, the last facet is parsed until its end
+     * @param listener listener notified about the parsed triangles, null for none
+     */
+    private STLTextParser(FileChannel channel, long start, long end, TriangleListener listener) {
+        this.channel = channel;
+        this.listener = listener;
+        this.start = start;
+        this.end = end;
+        this.buffer = new byte[(int)Math.min(1 << 16, Math.max(64, end - start))];
+    }
+
+    /**
+     * Parse a text STL file, in parallel if it is large enough.
+     * @param file file to parse
+     * @param withNormals option to store the normals, without them the mesh has null normals
+     * @param listener listener notified about the parsed triangles, null for none
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
+     */
+    static STLMesh parse(Path file, boolean withNormals, TriangleListener listener) throws IOException {
+        return parse(file, -1, withNormals, listener);
+    }
+
+    /**
+     * Parse a text STL file split into the given number of ranges.
+     * @param file file to parse
+     * @param chunks number of ranges parsed in parallel, 1 to parse sequentially on the calling thread, -1 to choose
+     *               it based on the size of the file and the parallelism of the common {@link ForkJoinPool}
+     * @param withNormals option to store the normals, without them the mesh has null normals
+     * @param listener listener notified about the parsed triangles, null for none
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
+     */
+    static STLMesh parse(Path file, int chunks, boolean withNormals, TriangleListener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            STLTextParser[] parsers = split(channel, chunks, listener);
+            long total = countFacets(parsers);
+            if (total > STLReader.MAX_TRIANGLES) throw new IOException("Too many triangles: " + total);
+            float[] vertices = new float[(int)(9 * total)], normals = withNormals ? new float[(int)(3 * total)] : null;
+            if (parseInto(parsers, vertices, normals)) return new STLMesh(vertices, normals);
+
+            // the ranges don't match the facets, parse the file again sequentially (without reporting the triangles)
+            return parseGrowing(channel, withNormals);
+        }
+    }
+
+    /**
+     * Parse a text STL file into arrays supplied by the caller. If the file has more triangles than the arrays can
+     * hold, only the first ones are stored.
+     * @param file file to parse
+     * @param chunks number of ranges parsed in parallel, 1 to parse sequentially on the calling thread, -1 to choose
+     *               it based on the size of the file and the parallelism of the common {@link ForkJoinPool}
+     * @param vertices output array for the coordinates of the vertices, 9 values per triangle
+     * @param normals output array for the normal vectors, 3 values per triangle, null to skip the normals
+     * @return number of triangles in the file
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
+     */
+    static int parse(Path file, int chunks, float[] vertices, float[] normals) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            STLTextParser[] parsers = split(channel, chunks, null);
+            long total = countFacets(parsers);
+            if (total > Integer.MAX_VALUE) throw new IOException("Too many triangles: " + total);
+            if (parseInto(parsers, vertices, normals)) return (int)total;
+
+            // the ranges don't match the facets, parse the file again sequentially and copy what fits
+            STLMesh mesh = parseGrowing(channel, normals != null);
+            int stored = Math.min(mesh.getTriangleCount(), vertices.length / 9);
+            if (normals != null) stored = Math.min(stored, normals.length / 3);
+            System.arraycopy(mesh.getVertices(), 0, vertices, 0, 9 * stored);
+            if (normals != null) System.arraycopy(mesh.getNormals(), 0, normals, 0, 3 * stored);
+            return mesh.getTriangleCount();
+        }
+    }
+
+    /**
+     * Split a file into ranges starting at "facet" keywords.
+     * @param channel channel of the file
+     * @param chunks number of ranges, -1 to choose it based on the size of the file and the parallelism of the common
+     *               {@link ForkJoinPool}
+     * @param listener listener notified about the parsed triangles, null for none
+     * @return parsers of the ranges in file order
+     * @throws IOException if any error arises while reading the file
+     */
+    private static STLTextParser[] split(FileChannel channel, int chunks, TriangleListener listener) throws IOException {
+        long size = channel.size();
+        if (chunks < 0) {
+            int parallelism = ForkJoinPool.getCommonPoolParallelism();
+            chunks = (size < PARALLEL_THRESHOLD || parallelism < 2) ? 1
+                    : (int)Math.min(4L * parallelism, size / MIN_CHUNK_SIZE);
+        }
+        chunks = (int)Math.max(1, Math.min(chunks, size));
+
+        long[] starts = new long[chunks + 1];
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            starts[chunk] = findFacet(channel, Math.max(starts[chunk - 1], size * chunk / chunks));
+        }
+        starts[chunks] = size;
+
+        STLTextParser[] parsers = new STLTextParser[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            parsers[chunk] = new STLTextParser(channel, starts[chunk], starts[chunk + 1], listener);
+        }
+        return parsers;
+    }
+
+    /**
+     * Count the "facet" keywords in all ranges, in parallel if there is more than one range.
+     * @param parsers parsers of the ranges in file order
+     * @return number of facets in the file
+     * @throws IOException if any error arises while reading the file
+     */
+    private static long countFacets(STLTextParser[] parsers) throws IOException {
+        run(parsers, true);
+        long total = 0;
+        for (STLTextParser parser : parsers) total += parser.facetCount;
+        return total;
+    }
+
+    /**
+     * Parse all ranges, in parallel if there is more than one range, each range writes its triangles to the output
+     * arrays at the offset given by the facet counts of the previous ranges. Triangles that don't fit into the arrays
+     * are dropped. The facets have to be counted using {@link #countFacets(STLTextParser[])} first.
+     * @param parsers parsers of the ranges in file order
+     * @param vertices output array for the coordinates of the vertices, 9 values per triangle
+     * @param normals output array for the normal vectors, 3 values per triangle, null to skip the normals
+     * @return true if every range parsed the counted number of triangles and stopped where the next range starts,
+     * false if the ranges don't match the facets of the file (only an invalid file with a "facet" keyword inside
+     * of another facet breaks this) and the file has to be parsed again sequentially
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
+     */
+    private static boolean parseInto(STLTextParser[] parsers, float[] vertices, float[] normals) throws IOException {
+        int arrayCapacity = vertices.length / 9;
+        if (normals != null) arrayCapacity = Math.min(arrayCapacity, normals.length / 3);
+        long first = 0;
+        for (STLTextParser parser : parsers) {
+            parser.vertices = vertices;
+            parser.normals = normals;
+            parser.first = (int)Math.min(first, arrayCapacity);
+            parser.capacity = (int)Math.max(0, Math.min(parser.facetCount, arrayCapacity - first));
+            first += parser.facetCount;
+        }
+        run(parsers, false);
+
+        for (int chunk = 0; chunk < parsers.length; chunk++) {
+            if (parsers[chunk].triangleCount != parsers[chunk].facetCount) return false;
+            if (chunk > 0 && parsers[chunk - 1].stopPosition != parsers[chunk].start) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse a whole file sequentially into arrays that grow as needed.
+     * @param channel channel of the file
+     * @param withNormals option to store the normals, without them the mesh has null normals
+     * @return triangles specified in the file
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
+     */
+    private static STLMesh parseGrowing(FileChannel channel, boolean withNormals) throws IOException {
+        STLTextParser parser = new STLTextParser(channel, 0, channel.size(), null);
+        parser.growing = true;
+        parser.capacity = Integer.MAX_VALUE;
+        parser.vertices = new float[9 * 16];
+        parser.normals = withNormals ? new float[3 * 16] : null;
+        parser.parseRange();
+        return new STLMesh(Arrays.copyOf(parser.vertices, 9 * parser.triangleCount),
+                withNormals ? Arrays.copyOf(parser.normals, 3 * parser.triangleCount) : null);
+    }
+
+    /**
+     * Count the facets or parse all ranges.
+     * @param parsers parsers of the ranges in file order
+     * @param count true to count the facets, false to parse them
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
+     */
+    private static void run(STLTextParser[] parsers, boolean count) throws IOException {
+        if (parsers.length == 1) {
+            if (count) parsers[0].countFacets();
+            else parsers[0].parseRange();
+            return;
+        }
+        try {
+            ForkJoinPool.commonPool().invoke(new RangeTask(parsers, 0, parsers.length, count));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Find the first "facet" keyword (a whole token) starting at or after a position.
+     * @param channel channel of the file
+     * @param from position where the search starts
+     * @return position of the keyword, size of the file if there is none
+     * @throws IOException if any error arises while reading the file
+     */
+    private static long findFacet(FileChannel channel, long from) throws IOException {
+        long size = channel.size();
+        byte[] window = new byte[1 << 16];
+        // the window starts one byte early to see whether the keyword is preceded by whitespace
+        for (long windowStart = Math.max(0, from - 1); windowStart < size; windowStart += window.length - FACET.length - 1) {
+            ByteBuffer target = ByteBuffer.wrap(window);
+            while (target.hasRemaining()) {
+                if (channel.read(target, windowStart + target.position()) < 0) break;
+            }
+            int length = target.position();
+            for (int i = 0; i + FACET.length <= length; i++) {
+                long position = windowStart + i;
+                if (position < from || !Arrays.equals(window, i, i + FACET.length, FACET, 0, FACET.length)) continue;
+                boolean separatedBefore = position == 0 || (i > 0 && isWhitespace(window[i - 1]));
+                boolean separatedAfter = position + FACET.length == size
+                        || (i + FACET.length < length && isWhitespace(window[i + FACET.length]));
+                if (separatedBefore && separatedAfter) return position;
+            }
+            if (windowStart + length >= size) break;
+        }
+        return size;
+    }
+
+    /**
+     * Count the "facet" keywords starting in the range of this parser into {@link #facetCount}.
+     * @throws IOException if any error arises while reading the file
+     */
+    private void countFacets() throws IOException {
+        rewind();
+        facetCount = 0;
+        // true if the byte before the buffer is whitespace - ranges start at the start of the file or of a token
+        boolean separated = true;
+        while (true) {
+            // keep the whole keyword and the byte after it in the buffer, except at the end of the file
+            if (limit - position <= FACET.length && !endOfFile) {
+                if (position > 0) separated = isWhitespace(buffer[position - 1]);
+                if (fill(position)) continue;
+            }
+            int stop = (int)Math.min(endOfFile ? limit : limit - FACET.length, end - bufferOffset);
+            if (position >= stop) return;
+            byte[] bytes = buffer;
+            int i = position;
+            while (true) {
+                while (i < stop && bytes[i] != 'f') i++;
+                if (i >= stop) break;
+                if (isFacetKeyword(i, separated)) facetCount++;
+                i++;
+            }
+            position = i;
+        }
+    }
+
+    /**
+     * @param index index in {@link #buffer}
+     * @param separated true if the byte before the buffer is whitespace
+     * @return true if the "facet" keyword starts at the index as a whole token, preceded by whitespace and followed by
+     * whitespace or the end of the file
+     */
+    private boolean isFacetKeyword(int index, boolean separated) {
+        if (index > 0 ? !isWhitespace(buffer[index - 1]) : !separated) return false;
+        int keywordEnd = index + FACET.length;
+        if (keywordEnd > limit) return false;
+        for (int i = 1; i < FACET.length; i++) {
+            if (buffer[index + i] != FACET[i]) return false;
+        }
+        return (keywordEnd == limit) ? endOfFile : isWhitespace(buffer[keywordEnd]);
+    }
+
+    /**
+     * Parse all facets starting in the range of this parser into the output arrays.
+     * @throws IOException if any error arises while reading the file or if the file isn't a valid STL file
+     */
+    private void parseRange() throws IOException {
+        rewind();
+        triangleCount = 0;
+        reportedCount = 0;
+        stopPosition = channel.size();
+        while (nextToken()) {
+            if (bufferOffset + tokenStart >= end) {
+                stopPosition = bufferOffset + tokenStart;
+                break;
+            }
+            if (isToken(FACET)) readFacet();
+        }
+        report();
+    }
+
+    /**
+     * Move back to the start of the range.
+     */
+    private void rewind() {
+        bufferOffset = start;
+        limit = position = tokenStart = tokenEnd = 0;
+        endOfFile = false;
+    }
+
+    /**
+     * Report the triangles stored since the last report to the {@link #listener}.
+     */
+    private void report() {
+        int stored = Math.min(triangleCount, capacity);
+        if (listener != null && stored > reportedCount) {
+            listener.trianglesRead(vertices, first + reportedCount, stored - reportedCount);
+            reportedCount = stored;
+        }
+    }
+
+    /**
+     * Read the rest of a facet after the "facet" keyword up to the "endfacet" keyword. Vertices after the third one are
+     * ignored, missing normal is stored as zeros. The triangle is stored only if the range has
+     * {@link #capacity space} for it.
+     * @throws IOException if any error arises while reading the file or if the facet has fewer than 3 vertices
+     */
+    private void readFacet() throws IOException {
+        boolean store = triangleCount < capacity;
+        if (growing && triangleCount * 9 == vertices.length) {
+            vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+            if (normals != null) normals = Arrays.copyOf(normals, 2 * normals.length);
+        }
+        int v = 9 * (first + triangleCount), n = 3 * (first + triangleCount);
+        boolean storeNormal = store && normals != null;
+        if (storeNormal) normals[n] = normals[n + 1] = normals[n + 2] = 0;
+        int vertexCount = 0;
+        while (nextToken() && !isToken(ENDFACET)) {
+            if (isToken(NORMAL)) {
+                float x = nextFloat(), y = nextFloat(), z = nextFloat();
+                if (storeNormal) {
+                    normals[n] = x;
+                    normals[n + 1] = y;
+                    normals[n + 2] = z;
+                }
+            } else if (isToken(VERTEX)) {
+                float x = nextFloat(), y = nextFloat(), z = nextFloat();
+                if (store && vertexCount < 3) {
+                    vertices[v + 3*vertexCount] = x;
+                    vertices[v + 3*vertexCount + 1] = y;
+                    vertices[v + 3*vertexCount + 2] = z;
+                }
+                vertexCount++;
+            }
+        }
+        if (vertexCount < 3) {
+            throw new IOException("Facet ending at position " + (bufferOffset + tokenEnd) + " has fewer than 3 vertices");
+        }
+        triangleCount++;
+        if (triangleCount - reportedCount >= STLReader.BATCH_TRIANGLES) report();
+    }
+
+    /**
+     * Move to the next token.
+     * @return false if there are no more tokens in the file
+     * @throws IOException if any error arises while reading the file
+     */
+    private boolean nextToken() throws IOException {
+        while (true) {
+            while (position < limit && isWhitespace(buffer[position])) position++;
+            if (position < limit) break;
+            if (!fill(position)) return false;
+        }
+
+        tokenStart = position;
+        while (true) {
+            while (position < limit && !isWhitespace(buffer[position])) position++;
+            if (position < limit || !fill(tokenStart)) break;
+        }
+        tokenEnd = position;
+        return true;
+    }
+
+    /**
+     * Read the next part of the file into the buffer, keeping the bytes from keepFrom onwards (moved to the start of
+     * the buffer).
+     * @param keepFrom index of the first byte in the buffer that has to be kept
+     * @return false if the end of the file was reached and no bytes were read
+     * @throws IOException if any error arises while reading the file
+     */
+    private boolean fill(int keepFrom) throws IOException {
+        if (endOfFile) return false;
+        int kept = limit - keepFrom;
+        System.arraycopy(buffer, keepFrom, buffer, 0, kept);
+        bufferOffset += keepFrom;
+        position -= keepFrom;
+        tokenStart -= keepFrom;
+        limit = kept;
+        if (limit == buffer.length) buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+
+        int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit), bufferOffset + limit);
+        if (read < 0) {
+            endOfFile = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * @param keyword keyword in ASCII
+     * @return true if the current token is the keyword
+     */
+    private boolean isToken(byte[] keyword) {
+        return Arrays.equals(buffer, tokenStart, tokenEnd, keyword, 0, keyword.length);
+    }
+
+    /**
+     * Read the next token as a float.
+     * @return parsed float
+     * @throws IOException if any error arises while reading the file or if the token isn't a float
+     */
+    private float nextFloat() throws IOException {
+        if (!nextToken()) throw new IOException("Unexpected end of file, expected a number");
+        float value = parseFloat(buffer, tokenStart, tokenEnd);
+        return Float.isNaN(value) ? slowParseFloat() : value;
+    }
+
+    /**
+     * Parse the current token using {@link Float#parseFloat}.
+     * @return parsed float
+     * @throws IOException if the token isn't a float
+     */
+    private float slowParseFloat() throws IOException {
+        String token = new String(buffer, tokenStart, tokenEnd - tokenStart, StandardCharsets.US_ASCII);
+        try {
+            return Float.parseFloat(token);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number: " + token, e);
+        }
+    }
+
+    /**
+     * Parse a float in the form [sign] digits [. digits] [(e|E) [sign] digits] with the same result as
+     * {@link Float#parseFloat}. The value is computed as an exact integer multiplied or divided by an exact power of ten
+     * in double precision (which is correctly rounded) and then rounded to float, which gives the correctly rounded
+     * float unless the double lies exactly halfway between two floats.
+     * @param bytes bytes containing the number
+     * @param start index of the first byte of the number
+     * @param end index after the last byte of the number
+     * @return parsed float, NaN if the number isn't in a supported form or can't be parsed exactly
+     */
+    static float parseFloat(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) negative = bytes[i++] == '-';
+
+        long mantissa = 0;
+        int exponent = 0, digits = 0;
+        boolean exact = true;
+        for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, digits++) {
+            if (mantissa < MAX_EXACT_MANTISSA) mantissa = 10 * mantissa + (bytes[i] - '0');
+            else { exponent++; exact &= bytes[i] == '0'; }
+        }
+        if (i < end && bytes[i] == '.') {
+            for (i++; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, digits++) {
+                if (mantissa < MAX_EXACT_MANTISSA) {
+                    mantissa = 10 * mantissa + (bytes[i] - '0');
+                    exponent--;
+                } else exact &= bytes[i] == '0';
+            }
+        }
+        if (digits == 0) return Float.NaN;
+
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) negativeExponent = bytes[i++] == '-';
+            if (i == end) return Float.NaN;
+            int value = 0;
+            for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                value = Math.min(10 * value + (bytes[i] - '0'), 10000);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != end || !exact || mantissa > MAX_EXACT_MANTISSA) return Float.NaN;
+
+        double result;
+        if (mantissa == 0) result = 0;
+        else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) result = mantissa * POWERS_OF_TEN[exponent];
+        else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) result = mantissa / POWERS_OF_TEN[-exponent];
+        else return Float.NaN;
+
+        // rounding to float is exact unless the double is a midpoint between floats or outside of the normal range
+        boolean midpoint = (Double.doubleToRawLongBits(result) & 0x1FFFFFFFL) == 0x10000000L;
+        if (result != 0 && (result < Float.MIN_NORMAL || result >= Float.MAX_VALUE || midpoint)) return Float.NaN;
+        float value = (float)result;
+        return negative ? -value : value;
+    }
+
+    /**
+     * @param b byte of the file
+     * @return true if the byte is an ASCII whitespace character
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * @param text ASCII text
+     * @return bytes of the text
+     */
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Task counting the facets of or parsing a range of the ranges of a file.
+     */
+    private static class RangeTask extends RecursiveAction {
+        /**
+         * Tasks are never serialized, the version only satisfies {@link java.io.Serializable}.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Parsers of all ranges of the file.
+         */
+        private final STLTextParser[] parsers;
+
+        /**
+         * Range of ranges [first, end) to process.
+         */
+        private final int first, end;
+
+        /**
+         * True to count the facets, false to parse them.
+         */
+        private final boolean count;
+
+        /**
+         * @param parsers parsers of all ranges of the file
+         * @param first index of the first range to process
+         * @param end index after the last range to process
+         * @param count true to count the facets, false to parse them
+         */
+        RangeTask(STLTextParser[] parsers, int first, int end, boolean count) {
+            this.parsers = parsers;
+            this.first = first;
+            this.end = end;
+            this.count = count;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void compute() {
+            if (end - first > 1) {
+                int middle = (first + end) >>> 1;
+                invokeAll(new RangeTask(parsers, first, middle, count), new RangeTask(parsers, middle, end, count));
+                return;
+            }
+
+            try {
+                if (count) parsers[first].countFacets();
+                else parsers[first].parseRange();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package eu.medek.linerenderer3d.system.stlreader;
+
+/**
+ * Receives the triangles of an STL file in batches while the file is being read, so that a partially loaded mesh can
+ * be shown before the whole file is read.
+ */
+@FunctionalInterface
+public interface TriangleListener {
+    /**
+     * Called after a batch of triangles was read. Large text files are read in parallel ranges, so this can be called
+     * concurrently from several threads and the batches don't have to come in the order of the file. For invalid text
+     * files that have to be parsed again sequentially, the reported triangles may differ slightly from the result.
+     * @param vertices array containing the coordinates of the vertices of the batch, 9 values per triangle; valid only
+     *                 during the call, don't modify it
+     * @param first index of the first triangle of the batch in vertices (its coordinates start at 9*first)
+     * @param count number of triangles in the batch
+     */
+    void trianglesRead(float[] vertices, int first, int count);
+}